@@ -4,24 +4,59 @@ import org.slf4j.LoggerFactory;
 import org.nsu.fit.tm_backend.database.DBService;
 import org.nsu.fit.tm_backend.manager.auth.AuthenticationTokenManager;
 import org.nsu.fit.tm_backend.manager.CustomerManager;
+import org.nsu.fit.tm_backend.manager.CustomerSummaryManager;
 import org.nsu.fit.tm_backend.manager.PlanManager;
 import org.nsu.fit.tm_backend.manager.SubscriptionManager;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MainFactory {
     private static MainFactory instance;
 
+    // Requests waiting for a DB thread, per thread; the rest are rejected instead of piling up.
+    private static final int DB_EXECUTOR_QUEUE_PER_THREAD = 4;
+
+    private final DBService dbService;
     private final AuthenticationTokenManager authenticationTokenManager;
+    private final CustomerSummaryManager customerSummaryManager;
     private final CustomerManager customerManager;
     private final PlanManager planManager;
     private final SubscriptionManager subscriptionManager;
+    private final ExecutorService dbExecutor;
 
     private MainFactory() {
-        DBService dbService = new DBService(LoggerFactory.getLogger(DBService.class));
+        dbService = new DBService(LoggerFactory.getLogger(DBService.class));
 
         authenticationTokenManager = new AuthenticationTokenManager(dbService, LoggerFactory.getLogger(AuthenticationTokenManager.class));
-        customerManager = new CustomerManager(dbService, LoggerFactory.getLogger(CustomerManager.class));
-        planManager = new PlanManager(dbService, LoggerFactory.getLogger(PlanManager.class));
-        subscriptionManager = new SubscriptionManager(dbService, LoggerFactory.getLogger(SubscriptionManager.class));
+        customerSummaryManager = new CustomerSummaryManager(dbService, LoggerFactory.getLogger(CustomerSummaryManager.class));
+        customerManager = new CustomerManager(dbService, LoggerFactory.getLogger(CustomerManager.class), customerSummaryManager);
+        customerManager.setCustomerDeletedListener(authenticationTokenManager::invalidateCustomer);
+        planManager = new PlanManager(dbService, LoggerFactory.getLogger(PlanManager.class), customerSummaryManager);
+        subscriptionManager = new SubscriptionManager(dbService, LoggerFactory.getLogger(SubscriptionManager.class), planManager, customerSummaryManager);
+
+        dbExecutor = newDbExecutor(dbService.getPoolMaxSize());
+    }
+
+    // One thread per pooled connection: more threads would only wait for a connection.
+    // When the queue is full, execute() throws RejectedExecutionException.
+    private static ExecutorService newDbExecutor(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * DB_EXECUTOR_QUEUE_PER_THREAD),
+                r -> {
+                    Thread thread = new Thread(r, "db-executor-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
     }
 
     public static MainFactory getInstance() {
@@ -33,6 +68,10 @@ public class MainFactory {
         }
     }
 
+    public DBService getDBService() {
+        return dbService;
+    }
+
     public AuthenticationTokenManager getAuthenticationTokenManager() {
         return authenticationTokenManager;
     }
@@ -41,6 +80,10 @@ public class MainFactory {
         return customerManager;
     }
 
+    public CustomerSummaryManager getCustomerSummaryManager() {
+        return customerSummaryManager;
+    }
+
     public PlanManager getPlanManager() {
         return planManager;
     }
@@ -48,4 +91,11 @@ public class MainFactory {
     public SubscriptionManager getSubscriptionManager() {
         return subscriptionManager;
     }
+
+    /**
+     * Executor for the requests that go to the database, so that they don't hold the container threads.
+     */
+    public ExecutorService getDbExecutor() {
+        return dbExecutor;
+    }
 }
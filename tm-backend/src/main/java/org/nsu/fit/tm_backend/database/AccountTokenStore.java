@@ -0,0 +1,172 @@
+package org.nsu.fit.tm_backend.database;
+
+import org.nsu.fit.tm_backend.database.data.AccountTokenStoreStatsPojo;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory store of issued account tokens.
+ *
+ * Tokens are kept in a concurrent hash map, so a lookup costs O(1) and does not block other requests.
+ * Every token expires {@code ttlMillis} after it was added. Expired tokens are removed by a hashed
+ * timing wheel: the token is put into the slot of its expiration tick, and a background sweeper
+ * clears one slot per tick, so eviction never scans the whole store.
+ */
+public class AccountTokenStore implements AutoCloseable {
+    private final Logger logger;
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<String, Long> tokenToExpiration = new ConcurrentHashMap<>();
+    private final List<Queue<String>> wheel;
+    private final ScheduledExecutorService sweeper;
+    private long lastSweptTick;
+
+    // Metrics.
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AccountTokenStore(Logger logger, long ttlMillis, long tickMillis) {
+        this(logger, ttlMillis, tickMillis, System::currentTimeMillis);
+    }
+
+    // Для тестов: текущее время берется из clock.
+    AccountTokenStore(Logger logger, long ttlMillis, long tickMillis, LongSupplier clock) {
+        if (ttlMillis <= 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis, tickMillis");
+        }
+
+        this.logger = logger;
+        this.ttlMillis = ttlMillis;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+
+        // Колесо покрывает весь ttl, поэтому к моменту обхода слота все токены в нем уже истекли.
+        int wheelSize = (int)(ttlMillis / tickMillis) + 3;
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+
+        this.lastSweptTick = tickOf(clock.getAsLong()) - 1;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "account-token-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(String token) {
+        long expiration = clock.getAsLong() + ttlMillis;
+
+        tokenToExpiration.put(token, expiration);
+        wheel.get(slotOf(tickOf(expiration))).add(token);
+    }
+
+    public boolean contains(String token) {
+        lookups.increment();
+
+        Long expiration = tokenToExpiration.get(token);
+        if (expiration == null) {
+            misses.increment();
+            return false;
+        }
+
+        if (expiration <= clock.getAsLong()) {
+            // Истекший токен, до которого еще не дошел sweeper.
+            if (tokenToExpiration.remove(token, expiration)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    public void remove(String token) {
+        tokenToExpiration.remove(token);
+    }
+
+    public int size() {
+        return tokenToExpiration.size();
+    }
+
+    public AccountTokenStoreStatsPojo getStats() {
+        AccountTokenStoreStatsPojo stats = new AccountTokenStoreStatsPojo();
+
+        stats.size = tokenToExpiration.size();
+        stats.lookups = lookups.sum();
+        stats.misses = misses.sum();
+        stats.evictions = evictions.sum();
+
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    void sweep() {
+        try {
+            long now = clock.getAsLong();
+            // Обходим только полностью прошедшие тики: все токены из их слотов уже истекли.
+            long lastElapsedTick = tickOf(now) - 1;
+
+            // Догоняем пропущенные тики, если sweeper запускался с задержкой.
+            for (long tick = lastSweptTick + 1; tick <= lastElapsedTick; tick++) {
+                sweepSlot(wheel.get(slotOf(tick)), now);
+            }
+            lastSweptTick = Math.max(lastSweptTick, lastElapsedTick);
+        } catch (RuntimeException ex) {
+            logger.error("Failed to evict expired account tokens.", ex);
+        }
+    }
+
+    private void sweepSlot(Queue<String> slot, long now) {
+        int count = slot.size();
+        for (int i = 0; i < count; i++) {
+            String token = slot.poll();
+            if (token == null) {
+                return;
+            }
+
+            Long expiration = tokenToExpiration.get(token);
+            if (expiration == null) {
+                continue;
+            }
+
+            if (expiration <= now) {
+                if (tokenToExpiration.remove(token, expiration)) {
+                    evictions.increment();
+                }
+            } else {
+                // Токен был добавлен повторно и истекает позже, переносим его в нужный слот.
+                wheel.get(slotOf(tickOf(expiration))).add(token);
+            }
+        }
+    }
+
+    private long tickOf(long timeMillis) {
+        return timeMillis / tickMillis;
+    }
+
+    private int slotOf(long tick) {
+        return (int)(tick % wheel.size());
+    }
+}
@@ -0,0 +1,270 @@
+package org.nsu.fit.tm_backend.database;
+
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only ledger of balance changes.
+ *
+ * Callers put deltas into an in-memory buffer and wait until a single writer thread inserts them:
+ * everything that accumulated while the previous batch was being written goes to the database as
+ * one JDBC batch in one transaction (group commit). So a hot account is limited by the append rate,
+ * not by how long a row lock on CUSTOMER is held.
+ *
+ * The same thread periodically folds the ledger into the CUSTOMER.balance snapshot: in one transaction
+ * it locks a batch of unfolded rows, adds their sum to the snapshot and marks them folded, so a balance
+ * read always sees the snapshot plus exactly the rows not yet in it. Rows of uncommitted transactions
+ * are skipped and folded later, and folds of several backend instances never take the same row.
+ */
+public class BalanceLedger implements AutoCloseable {
+    // Строка вставляется, только если customer существует, иначе счетчик обновленных строк равен 0.
+    private static final String INSERT_DELTA = "INSERT INTO BALANCE_LEDGER(customer_id, delta) SELECT id, ? FROM CUSTOMER WHERE id=?";
+    private static final String ADD_SUMMARY_BALANCE = "UPDATE CUSTOMER_SUMMARY SET balance = balance + ? WHERE customer_id=?";
+
+    // SKIP LOCKED пропускает строки незакоммиченных транзакций и строки, которые сворачивает другой экземпляр:
+    // они останутся с folded = 0 и попадут в следующую свертку.
+    private static final String SELECT_UNFOLDED = "SELECT seq, customer_id, delta FROM BALANCE_LEDGER WHERE folded = 0 ORDER BY seq LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String ADD_SNAPSHOT_BALANCE = "UPDATE CUSTOMER SET balance = balance + ? WHERE id=?";
+    private static final String MARK_FOLDED = "UPDATE BALANCE_LEDGER SET folded = 1 WHERE seq=?";
+
+    private static final int FOLD_BATCH_SIZE = 1000;
+
+    private final Logger logger;
+    private final ConnectionPool connectionPool;
+    private final int maxBatchSize;
+    private final long snapshotIntervalMillis;
+    private final long appendTimeoutMillis;
+
+    private final BlockingQueue<PendingDelta> buffer = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    private long nextSnapshotAt;
+    private volatile boolean closed;
+
+    public BalanceLedger(
+            Logger logger,
+            ConnectionPool connectionPool,
+            int maxBatchSize,
+            long snapshotIntervalMillis,
+            long appendTimeoutMillis) {
+        if (maxBatchSize <= 0 || snapshotIntervalMillis <= 0 || appendTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("maxBatchSize, snapshotIntervalMillis, appendTimeoutMillis");
+        }
+
+        this.logger = logger;
+        this.connectionPool = connectionPool;
+        this.maxBatchSize = maxBatchSize;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.appendTimeoutMillis = appendTimeoutMillis;
+        this.nextSnapshotAt = System.currentTimeMillis() + snapshotIntervalMillis;
+
+        this.writer = new Thread(this::run, "balance-ledger-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Appends a balance delta and waits until it is committed.
+     *
+     * If the writer doesn't take the delta within the append timeout, the delta is withdrawn and never written,
+     * so the caller can safely retry. A delta the writer has already taken is waited for until its batch ends.
+     *
+     * @throws IllegalArgumentException if the customer doesn't exist
+     */
+    public void append(UUID customerId, int delta) {
+        if (closed) {
+            throw new IllegalStateException("Balance ledger is closed.");
+        }
+
+        PendingDelta pending = new PendingDelta(customerId, delta);
+        buffer.add(pending);
+
+        try {
+            try {
+                pending.committed.get(appendTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                if (pending.taken.compareAndSet(false, true)) {
+                    buffer.remove(pending);
+                    pending.committed.cancel(false);
+                    throw new RuntimeException("Timeout expired while waiting for the balance ledger.", ex);
+                }
+
+                // Дельта уже пишется, ее транзакция может закоммититься: ждем результат.
+                pending.committed.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the balance ledger.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+    }
+
+    private void run() {
+        List<PendingDelta> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                long waitMillis = Math.max(1, nextSnapshotAt - System.currentTimeMillis());
+                PendingDelta first = buffer.poll(waitMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, maxBatchSize - 1);
+                    // Дельты, отозванные по таймауту в append, не пишутся.
+                    batch.removeIf(pending -> !pending.taken.compareAndSet(false, true));
+                    if (!batch.isEmpty()) {
+                        write(batch);
+                    }
+                    batch.clear();
+                }
+
+                if (System.currentTimeMillis() >= nextSnapshotAt) {
+                    // Полная пачка - в журнале могут остаться строки: следующая свертка сразу после записи дельт.
+                    int folded = snapshot();
+                    nextSnapshotAt = System.currentTimeMillis() + (folded == FOLD_BATCH_SIZE ? 0 : snapshotIntervalMillis);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException ex) {
+                logger.error(ex.getMessage(), ex);
+            }
+        }
+
+        PendingDelta pending;
+        while ((pending = buffer.poll()) != null) {
+            if (pending.taken.compareAndSet(false, true)) {
+                pending.committed.completeExceptionally(new IllegalStateException("Balance ledger is closed."));
+            }
+        }
+    }
+
+    private void write(List<PendingDelta> batch) {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+
+            int[] counts;
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_DELTA)) {
+                for (PendingDelta pending : batch) {
+                    statement.setInt(1, pending.delta);
+                    statement.setBytes(2, UuidConverter.toBytes(pending.customerId));
+                    statement.addBatch();
+                }
+                counts = statement.executeBatch();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(ADD_SUMMARY_BALANCE)) {
+                for (PendingDelta pending : batch) {
+                    statement.setInt(1, pending.delta);
+                    statement.setBytes(2, UuidConverter.toBytes(pending.customerId));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            connection.commit();
+
+            for (int i = 0; i < batch.size(); i++) {
+                PendingDelta pending = batch.get(i);
+                if (counts[i] == 0) {
+                    pending.committed.completeExceptionally(new IllegalArgumentException(
+                            "Customer with id '" + pending.customerId + "' was not found."));
+                } else {
+                    pending.committed.complete(null);
+                }
+            }
+        } catch (SQLException | RuntimeException ex) {
+            // Взятые дельты должны быть завершены, иначе append будет ждать их бесконечно.
+            logger.error(ex.getMessage(), ex);
+            for (PendingDelta pending : batch) {
+                pending.committed.completeExceptionally(ex instanceof RuntimeException ? ex : new RuntimeException(ex));
+            }
+        }
+    }
+
+    private int snapshot() {
+        try (Connection connection = connectionPool.getConnection()) {
+            // В READ COMMITTED выборка не ставит gap-блокировки, которые остановили бы вставки в журнал на время свертки.
+            int isolation = connection.getTransactionIsolation();
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            try {
+                connection.setAutoCommit(false);
+
+                List<Long> seqs = new ArrayList<>();
+                Map<UUID, Long> deltas = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement(SELECT_UNFOLDED)) {
+                    statement.setInt(1, FOLD_BATCH_SIZE);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            seqs.add(rs.getLong(1));
+                            deltas.merge(UuidConverter.fromBytes(rs.getBytes(2)), (long)rs.getInt(3), Long::sum);
+                        }
+                    }
+                }
+                if (seqs.isEmpty()) {
+                    return 0;
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement(ADD_SNAPSHOT_BALANCE)) {
+                    for (Map.Entry<UUID, Long> entry : deltas.entrySet()) {
+                        statement.setLong(1, entry.getValue());
+                        statement.setBytes(2, UuidConverter.toBytes(entry.getKey()));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                try (PreparedStatement statement = connection.prepareStatement(MARK_FOLDED)) {
+                    for (long seq : seqs) {
+                        statement.setLong(1, seq);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                connection.commit();
+
+                logger.debug("{} balance ledger rows were folded into {} customers.", seqs.size(), deltas.size());
+                return seqs.size();
+            } finally {
+                connection.setTransactionIsolation(isolation);
+            }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            return 0;
+        }
+    }
+
+    private static class PendingDelta {
+        private final UUID customerId;
+        private final int delta;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+        // Кто первым взял дельту: writer (она будет записана) или append по таймауту (она отозвана).
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        private PendingDelta(UUID customerId, int delta) {
+            this.customerId = customerId;
+            this.delta = delta;
+        }
+    }
+}
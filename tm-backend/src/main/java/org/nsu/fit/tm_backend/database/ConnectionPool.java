@@ -0,0 +1,328 @@
+package org.nsu.fit.tm_backend.database;
+
+import org.nsu.fit.tm_backend.database.data.ConnectionPoolStatsPojo;
+import org.nsu.fit.tm_backend.shared.JsonMapper;
+import org.slf4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of JDBC connections.
+ *
+ * Connections handed out by {@link #getConnection()} are proxies: calling {@code close()}
+ * on them returns the physical connection back to the pool instead of closing it.
+ * Idle connections are validated on borrow and evicted in background after {@code idleTimeoutMillis}.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final Logger logger;
+
+    private final ConnectionFactory connectionFactory;
+
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+
+    // Один permit на одно физическое соединение, которое может быть выдано.
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    // Metrics.
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder acquisitionTimeouts = new LongAdder();
+    private final LongAdder acquisitionNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private volatile boolean closed;
+
+    public ConnectionPool(
+            Logger logger,
+            String url,
+            String user,
+            String pass,
+            int maxSize,
+            long acquireTimeoutMillis,
+            long idleTimeoutMillis,
+            int validationTimeoutSeconds) {
+        this(logger, () -> DriverManager.getConnection(url, user, pass), maxSize, acquireTimeoutMillis, idleTimeoutMillis, validationTimeoutSeconds);
+    }
+
+    // Для тестов: физические соединения открывает переданная фабрика.
+    ConnectionPool(
+            Logger logger,
+            ConnectionFactory connectionFactory,
+            int maxSize,
+            long acquireTimeoutMillis,
+            long idleTimeoutMillis,
+            int validationTimeoutSeconds) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize");
+        }
+
+        this.logger = logger;
+        this.connectionFactory = connectionFactory;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool. The connection must be closed by the caller,
+     * preferably with try-with-resources.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                acquisitionTimeouts.increment();
+                throw new SQLException(String.format(
+                        "Timeout of %s ms expired while waiting for a database connection (pool size: %s).",
+                        acquireTimeoutMillis,
+                        maxSize));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", ex);
+        }
+
+        return borrow(startedAt);
+    }
+
+    /**
+     * Same as {@link #getConnection()}, but doesn't wait: returns null if all connections are in use.
+     */
+    public Connection tryGetConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        long startedAt = System.nanoTime();
+        if (!permits.tryAcquire()) {
+            return null;
+        }
+
+        return borrow(startedAt);
+    }
+
+    // Called with a permit acquired; gives it back if no connection could be borrowed.
+    private Connection borrow(long startedAt) throws SQLException {
+        try {
+            Connection physical = borrowPhysicalConnection();
+
+            acquisitions.increment();
+            acquisitionNanos.add(System.nanoTime() - startedAt);
+
+            return wrap(physical);
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public ConnectionPoolStatsPojo getStats() {
+        ConnectionPoolStatsPojo stats = new ConnectionPoolStatsPojo();
+
+        long count = acquisitions.sum();
+
+        stats.maxSize = maxSize;
+        stats.openConnections = openConnections.get();
+        stats.idleConnections = idleConnections.size();
+        stats.activeConnections = maxSize - permits.availablePermits();
+        stats.acquisitions = count;
+        stats.acquisitionTimeouts = acquisitionTimeouts.sum();
+        stats.averageAcquisitionMillis = count == 0 ? 0 : acquisitionNanos.sum() / (double)count / 1_000_000;
+        stats.evictions = evictions.sum();
+
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            closeQuietly(idle.connection);
+        }
+    }
+
+    private Connection borrowPhysicalConnection() throws SQLException {
+        IdleConnection idle;
+        // Берем последнее возвращенное соединение (LIFO), чтобы старые успевали вытесняться.
+        while ((idle = idleConnections.pollFirst()) != null) {
+            if (isValid(idle.connection)) {
+                return idle.connection;
+            }
+
+            logger.debug("Pooled connection failed validation and will be discarded.");
+            closeQuietly(idle.connection);
+        }
+
+        Connection connection = connectionFactory.open();
+        openConnections.incrementAndGet();
+        return connection;
+    }
+
+    private void release(Connection physical) {
+        try {
+            if (closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+
+            idleConnections.offerFirst(new IdleConnection(physical, System.nanoTime()));
+        } catch (SQLException ex) {
+            logger.debug("Failed to return connection to the pool.", ex);
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    void evictIdleConnections() {
+        long now = System.nanoTime();
+        List<IdleConnection> expired = new ArrayList<>();
+
+        for (IdleConnection idle : idleConnections) {
+            if (TimeUnit.NANOSECONDS.toMillis(now - idle.releasedAt) >= idleTimeoutMillis) {
+                expired.add(idle);
+            }
+        }
+
+        for (IdleConnection idle : expired) {
+            // Соединение могли забрать между проходом и удалением.
+            if (idleConnections.remove(idle)) {
+                evictions.increment();
+                closeQuietly(idle.connection);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            logger.debug("Connection pool stats after eviction: {}", JsonMapper.toJson(getStats(), false));
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            logger.debug("Failed to close connection.", ex);
+        } finally {
+            openConnections.decrementAndGet();
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        return (Connection)Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new PooledConnectionHandler(physical));
+    }
+
+    @FunctionalInterface
+    interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long releasedAt;
+
+        private IdleConnection(Connection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    /**
+     * Intercepts {@code close()} so that the physical connection goes back to the pool.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private boolean returned;
+
+        private PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "unwrap":
+                case "isWrapperFor":
+                case "toString":
+                case "hashCode":
+                case "equals":
+                    break;
+                default:
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+}
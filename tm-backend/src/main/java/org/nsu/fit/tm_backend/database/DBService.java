@@ -2,346 +2,1092 @@ package org.nsu.fit.tm_backend.database;
 
 import org.slf4j.Logger;
 import org.nsu.fit.tm_backend.database.data.AccountTokenPojo;
+import org.nsu.fit.tm_backend.database.data.ConnectionPoolStatsPojo;
 import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerSummaryPojo;
 import org.nsu.fit.tm_backend.database.data.PlanPojo;
 import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.database.query.CustomerField;
+import org.nsu.fit.tm_backend.database.query.CustomerQuery;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
 import org.nsu.fit.tm_backend.manager.auth.exception.AccessDeniedException;
+import org.nsu.fit.tm_backend.shared.Globals;
 import org.nsu.fit.tm_backend.shared.JsonMapper;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class DBService implements IDBService{
     // Constants
-    private static final String INSERT_CUSTOMER = "INSERT INTO CUSTOMER(id, first_name, last_name, login, pass, balance) values ('%s', '%s', '%s', '%s', '%s', %s)";
-    private static final String UPDATE_CUSTOMER = "UPDATE CUSTOMER SET balance=%s WHERE id='%s'";
-    private static final String DELETE_CUSTOMER = "DELETE FROM CUSTOMER where id='%s'";
+    // Текущий баланс = снимок CUSTOMER.balance + записи журнала, еще не свернутые в снимок (см. BalanceLedger).
+    private static final String BALANCE_EXPRESSION = "(balance + COALESCE((SELECT SUM(l.delta) FROM BALANCE_LEDGER l WHERE l.customer_id = CUSTOMER.id AND l.folded = 0), 0))";
+    private static final String CUSTOMER_COLUMNS = "id, first_name, last_name, login, pass, " + BALANCE_EXPRESSION + " AS balance, version";
 
-    private static final String INSERT_SUBSCRIPTION = "INSERT INTO SUBSCRIPTION(id, customer_id, plan_id) values ('%s', '%s', '%s')";
-    private static final String DELETE_SUBSCRIPTION = "DELETE FROM SUBSCRIPTION where id='%s'";
+    private static final String INSERT_CUSTOMER = "INSERT INTO CUSTOMER(id, first_name, last_name, login, pass, balance) values (?, ?, ?, ?, ?, ?)";
+    // Снимок выставляется так, чтобы вместе с еще не свернутыми записями журнала получился переданный баланс.
+    private static final String UPDATE_CUSTOMER = "UPDATE CUSTOMER SET balance = ? - COALESCE((SELECT SUM(l.delta) FROM BALANCE_LEDGER l WHERE l.customer_id = CUSTOMER.id AND l.folded = 0), 0) WHERE id=?";
+    private static final String DELETE_CUSTOMER = "DELETE FROM CUSTOMER where id=?";
+
+    // CUSTOMER_SUMMARY обновляется в той же транзакции, что и CUSTOMER/SUBSCRIPTION.
+    private static final String INSERT_CUSTOMER_SUMMARY = "INSERT INTO CUSTOMER_SUMMARY(customer_id, balance, total_fee, subscription_count) values (?, ?, 0, 0)";
+    private static final String UPDATE_CUSTOMER_SUMMARY_BALANCE = "UPDATE CUSTOMER_SUMMARY SET balance=? WHERE customer_id=?";
+    private static final String DELETE_CUSTOMER_SUMMARY = "DELETE FROM CUSTOMER_SUMMARY WHERE customer_id=?";
+    private static final String REMOVE_SUBSCRIPTION_FROM_SUMMARY = "UPDATE CUSTOMER_SUMMARY cs JOIN SUBSCRIPTION s ON s.customer_id = cs.customer_id LEFT JOIN PLAN p ON p.id = s.plan_id "
+            + "SET cs.total_fee = cs.total_fee - COALESCE(p.fee, 0), cs.subscription_count = cs.subscription_count - 1 WHERE s.id=?";
+    private static final String SELECT_CUSTOMER_SUMMARIES = "SELECT * FROM CUSTOMER_SUMMARY WHERE customer_id IN (%s)";
+    // Удаляемый план перестает учитываться в total_fee подписчиков, как и в SELECT_CUSTOMER_STATISTIC (JOIN PLAN).
+    private static final String REMOVE_PLAN_FROM_SUMMARIES = "UPDATE CUSTOMER_SUMMARY cs "
+            + "JOIN (SELECT customer_id, COUNT(*) AS subscriptions FROM SUBSCRIPTION WHERE plan_id=? GROUP BY customer_id) s ON s.customer_id = cs.customer_id "
+            + "JOIN PLAN p ON p.id=? "
+            + "SET cs.total_fee = cs.total_fee - p.fee * s.subscriptions";
+
+    // Покупка подписки: строка customer'а меняется, только если ее версия не изменилась и денег хватает.
+    private static final String CHARGE_CUSTOMER = "UPDATE CUSTOMER SET version = version + 1 WHERE id=? AND version=? AND " + BALANCE_EXPRESSION + " >= (SELECT fee FROM PLAN WHERE id=?)";
+    private static final String INSERT_PLAN_CHARGE = "INSERT INTO BALANCE_LEDGER(customer_id, delta) SELECT ?, -fee FROM PLAN WHERE id=?";
+    private static final String ADD_PURCHASE_TO_SUMMARY = "UPDATE CUSTOMER_SUMMARY cs JOIN PLAN p ON p.id=? "
+            + "SET cs.balance = cs.balance - p.fee, cs.total_fee = cs.total_fee + p.fee, cs.subscription_count = cs.subscription_count + 1 WHERE cs.customer_id=?";
+
+    private static final String INSERT_SUBSCRIPTION = "INSERT INTO SUBSCRIPTION(id, customer_id, plan_id) values (?, ?, ?)";
+    private static final String DELETE_SUBSCRIPTION = "DELETE FROM SUBSCRIPTION where id=?";
+    private static final String SELECT_SUBSCRIPTION = "SELECT * FROM SUBSCRIPTION WHERE id=?";
     private static final String SELECT_ALL_SUBSCRIPTIONS = "SELECT * FROM SUBSCRIPTION";
-    private static final String SELECT_SUBSCRIPTIONS = "SELECT * FROM SUBSCRIPTION WHERE customer_id='%s'";
+    private static final String SELECT_SUBSCRIPTIONS = "SELECT * FROM SUBSCRIPTION WHERE customer_id=?";
+    private static final String SELECT_SUBSCRIPTIONS_BY_CUSTOMERS = "SELECT * FROM SUBSCRIPTION WHERE customer_id IN (%s)";
 
-    private static final String INSERT_PLAN = "INSERT INTO PLAN(id, name, details, fee) values ('%s', '%s', '%s', %s)";
-    private static final String DELETE_PLAN = "DELETE FROM PLAN where id='%s'";
+    // Подписки вместе с полями плана за один запрос; details может быть большим, поэтому выбирается по запросу.
+    private static final String SELECT_SUBSCRIPTIONS_WITH_PLANS = "SELECT s.id, s.customer_id, s.plan_id, p.name AS plan_name, p.fee AS plan_fee%s FROM SUBSCRIPTION s LEFT JOIN PLAN p ON p.id = s.plan_id%s";
+    private static final String PLAN_DETAILS_COLUMN = ", p.details AS plan_details";
+    private static final String SUBSCRIPTION_CUSTOMER_CONDITION = " WHERE s.customer_id=?";
 
-    private static final String SELECT_CUSTOMER_BY_LOGIN = "SELECT * FROM CUSTOMER WHERE login='%s'";
-    private static final String SELECT_CUSTOMER = "SELECT * FROM CUSTOMER WHERE id='%s'";
-    private static final String SELECT_CUSTOMERS = "SELECT * FROM CUSTOMER";
+    private static final String INSERT_PLAN = "INSERT INTO PLAN(id, name, details, fee) values (?, ?, ?, ?)";
+    private static final String DELETE_PLAN = "DELETE FROM PLAN where id=?";
+
+    private static final String SELECT_CUSTOMER_BY_LOGIN = "SELECT " + CUSTOMER_COLUMNS + " FROM CUSTOMER WHERE login=?";
+    private static final String SELECT_CUSTOMER = "SELECT " + CUSTOMER_COLUMNS + " FROM CUSTOMER WHERE id=?";
+    private static final String SELECT_CUSTOMERS = "SELECT " + CUSTOMER_COLUMNS + " FROM CUSTOMER";
+    private static final String SELECT_CUSTOMERS_BY_IDS = "SELECT " + CUSTOMER_COLUMNS + " FROM CUSTOMER WHERE id IN (%s)";
 
     private static final String SELECT_PLANS = "SELECT * FROM PLAN";
 
+    // %1$s - список placeholder'ов для id customer'ов, он подставляется в оба подзапроса.
+    private static final String SELECT_CUSTOMER_STATISTIC = "SELECT "
+            + "(SELECT COUNT(*) FROM CUSTOMER WHERE id IN (%1$s)) AS customer_count, "
+            + "(SELECT COALESCE(SUM" + BALANCE_EXPRESSION + ", 0) FROM CUSTOMER WHERE id IN (%1$s)) AS overall_balance, "
+            + "(SELECT COALESCE(SUM(p.fee), 0) FROM SUBSCRIPTION s JOIN PLAN p ON p.id = s.plan_id WHERE s.customer_id IN (%1$s)) AS overall_fee";
+
+    // Keyset pagination: rows are ordered by primary key, the cursor holds the last id of the previous page.
+    private static final String SELECT_PLANS_PAGE = "SELECT * FROM PLAN WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_AVAILABLE_PLANS_PAGE = "SELECT * FROM PLAN WHERE id > ? AND id NOT IN (SELECT plan_id FROM SUBSCRIPTION WHERE customer_id=?) ORDER BY id LIMIT ?";
+    private static final String SELECT_ALL_SUBSCRIPTIONS_PAGE = "SELECT * FROM SUBSCRIPTION WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_SUBSCRIPTIONS_PAGE = "SELECT * FROM SUBSCRIPTION WHERE customer_id=? AND id > ? ORDER BY id LIMIT ?";
+
+    // Сколько id подставляется в один запрос с IN (...).
+    private static final int IN_CHUNK_SIZE = 500;
+
+    // Нулевой UUID никогда не генерируется, поэтому подходит как нижняя граница первой страницы.
+    private static final UUID FIRST_PAGE_ID = new UUID(0, 0);
+
+    // Server-side prepared statements + per-connection statement cache of MySQL Connector/J:
+    // PreparedStatement.close() returns the statement to the cache of its (pooled) connection.
+    private static final String STATEMENT_CACHE_OPTIONS = "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=256&prepStmtCacheSqlLimit=2048";
+    // Отправлять JDBC batch одним запросом, а не по одному запросу на строку.
+    private static final String BATCH_OPTIONS = "&rewriteBatchedStatements=true";
+
+    private static final Set<CustomerField> ALL_CUSTOMER_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(CustomerField.class));
+
+    private static final int POOL_MAX_SIZE = 16;
+    private static final long POOL_ACQUIRE_TIMEOUT_MILLIS = 5000;
+    private static final long POOL_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final int POOL_VALIDATION_TIMEOUT_SECONDS = 2;
+    // Открытие нового соединения тоже ограничено по времени, иначе при недоступной базе оно ждет таймаута TCP.
+    private static final long POOL_CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final String CONNECT_OPTIONS = "&connectTimeout=" + POOL_CONNECT_TIMEOUT_MILLIS;
+
+    private static final int LEDGER_MAX_BATCH_SIZE = 500;
+    private static final long LEDGER_SNAPSHOT_INTERVAL_MILLIS = 10 * 1000;
+    private static final long LEDGER_APPEND_TIMEOUT_MILLIS = 5000;
+
     private final Logger logger;
-    private static final Object generalMutex = new Object();
-    private Connection connection;
+    private ConnectionPool connectionPool;
+    private BalanceLedger balanceLedger;
+
+    private static final long ACCOUNT_TOKEN_TTL_MILLIS = (Globals.AUTHENTICATION_JWT_VALID_FOR + Globals.AUTHENTICATION_JWT_CLOCK_SKEW) * 1000;
+    private static final long ACCOUNT_TOKEN_EVICTION_TICK_MILLIS = 60 * 1000;
 
-    private final List<AccountTokenPojo> accountTokens;
+    private final AccountTokenStore accountTokens;
 
     public DBService(Logger logger) {
         this.logger = logger;
-        this.accountTokens = new ArrayList<>();
+        this.accountTokens = new AccountTokenStore(logger, ACCOUNT_TOKEN_TTL_MILLIS, ACCOUNT_TOKEN_EVICTION_TICK_MILLIS);
         init();
     }
 
+    // Для тестов: готовый пул без миграций схемы.
+    DBService(Logger logger, ConnectionPool connectionPool, BalanceLedger balanceLedger) {
+        this.logger = logger;
+        this.accountTokens = new AccountTokenStore(logger, ACCOUNT_TOKEN_TTL_MILLIS, ACCOUNT_TOKEN_EVICTION_TICK_MILLIS);
+        this.connectionPool = connectionPool;
+        this.balanceLedger = balanceLedger;
+    }
+
     @Override
     public AccountTokenPojo createAccountToken(AccountTokenPojo accountTokenPojo) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'createAccountToken' was called with data: \n%s", JsonMapper.toJson(accountTokenPojo, true)));
+        logger.debug(String.format("Method 'createAccountToken' was called with data: \n%s", JsonMapper.toJson(accountTokenPojo, true)));
 
-            accountTokens.add(accountTokenPojo);
+        accountTokens.add(accountTokenPojo.token);
 
-            return accountTokenPojo;
-        }
+        return accountTokenPojo;
     }
 
     @Override
     public void checkAccountToken(String authenticationToken) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'checkAccountToken' was called with data: \n%s", authenticationToken));
+        logger.debug(String.format("Method 'checkAccountToken' was called with data: \n%s", authenticationToken));
 
-            accountTokens.stream()
-                    .filter(x -> x.token.equals(authenticationToken))
-                    .findFirst()
-                    .orElseThrow(() -> new AccessDeniedException(""));
+        if (!accountTokens.contains(authenticationToken)) {
+            throw new AccessDeniedException("");
         }
     }
 
     public CustomerPojo createCustomer(CustomerPojo customerData) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'createCustomer' was called with data: \n%s", JsonMapper.toJson(customerData, true)));
+        logger.debug(String.format("Method 'createCustomer' was called with data: \n%s", JsonMapper.toJson(customerData, true)));
 
-            customerData.id = UUID.randomUUID();
+        customerData.id = UUID.randomUUID();
+        return inTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_CUSTOMER)) {
+                statement.setBytes(1, UuidConverter.toBytes(customerData.id));
+                statement.setString(2, customerData.firstName);
+                statement.setString(3, customerData.lastName);
+                statement.setString(4, customerData.login);
+                statement.setString(5, customerData.pass);
+                statement.setInt(6, customerData.balance);
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_CUSTOMER_SUMMARY)) {
+                statement.setBytes(1, UuidConverter.toBytes(customerData.id));
+                statement.setLong(2, customerData.balance);
+                statement.executeUpdate();
+            }
+            return customerData;
+        });
+    }
+
+    public List<String> createCustomers(List<CustomerPojo> customers) {
+        logger.debug("Method 'createCustomers' was called for {} customers.", customers.size());
+
+        customers.forEach(customer -> customer.id = UUID.randomUUID());
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+
+            // Быстрый путь: вся пачка одной транзакцией, драйвер склеивает batch в многострочные INSERT'ы.
             try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(
-                        String.format(
-                                INSERT_CUSTOMER,
-                                customerData.id,
-                                customerData.firstName,
-                                customerData.lastName,
-                                customerData.login,
-                                customerData.pass,
-                                customerData.balance));
-                return customerData;
+                insertCustomers(connection, customers);
+                connection.commit();
+                return Collections.nCopies(customers.size(), null);
             } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+                if (!isRowError(ex)) {
+                    throw ex;
+                }
+                connection.rollback();
+                logger.debug("Batch insert of {} customers failed, retrying row by row: {}", customers.size(), ex.getMessage());
+            }
+
+            // Медленный путь: по строке на транзакцию, чтобы найти и пропустить плохие строки.
+            List<String> errors = new ArrayList<>(customers.size());
+            for (CustomerPojo customer : customers) {
+                try {
+                    insertCustomers(connection, Collections.singletonList(customer));
+                    connection.commit();
+                    errors.add(null);
+                } catch (SQLException ex) {
+                    if (!isRowError(ex)) {
+                        throw ex;
+                    }
+                    connection.rollback();
+                    SQLException cause = rowErrorCause(ex);
+                    errors.add(cause instanceof SQLIntegrityConstraintViolationException
+                            ? "Customer with login '" + customer.login + "' already exists."
+                            : cause.getMessage());
+                }
             }
+            return errors;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     public void editCustomer(CustomerPojo customerPojo) {
-        synchronized (generalMutex) {
-            logger.debug("Method 'editCustomer' was called with data: \n{}", JsonMapper.toJson(customerPojo, true));
+        logger.debug("Method 'editCustomer' was called with data: \n{}", JsonMapper.toJson(customerPojo, true));
 
-            try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(String.format(UPDATE_CUSTOMER, customerPojo.balance, customerPojo.id));
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+        inTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_CUSTOMER)) {
+                statement.setInt(1, customerPojo.balance);
+                statement.setBytes(2, UuidConverter.toBytes(customerPojo.id));
+                statement.executeUpdate();
             }
-        }
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_CUSTOMER_SUMMARY_BALANCE)) {
+                statement.setLong(1, customerPojo.balance);
+                statement.setBytes(2, UuidConverter.toBytes(customerPojo.id));
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CustomerPojo addCustomerBalance(UUID customerId, int money) {
+        logger.debug("Method 'addCustomerBalance' was called with data '{}', '{}'.", customerId, money);
+
+        balanceLedger.append(customerId, money);
+
+        return getCustomer(customerId);
     }
 
     @Override
     public void deleteCustomer(UUID id) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'removeCustomer' was called with data: \n%s", id));
+        logger.debug(String.format("Method 'removeCustomer' was called with data: \n%s", id));
 
-            try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(String.format(DELETE_CUSTOMER, id));
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+        inTransaction(connection -> {
+            executeUpdate(connection, DELETE_CUSTOMER, id);
+            executeUpdate(connection, DELETE_CUSTOMER_SUMMARY, id);
+            return null;
+        });
+    }
+
+    public List<CustomerPojo> getCustomers() {
+        logger.debug("Method 'getCustomers' was called.");
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMERS);
+             ResultSet rs = statement.executeQuery()) {
+            List<CustomerPojo> result = new ArrayList<>();
+            while (rs.next()) {
+                result.add(fillCustomerPojo(rs));
             }
+            return result;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
-    public List<CustomerPojo> getCustomers() {
-        synchronized (generalMutex) {
-            logger.debug("Method 'getCustomers' was called.");
+    @Override
+    public List<CustomerPojo> getCustomers(CustomerQuery query) {
+        logger.debug("Method 'getCustomers' was called with query: \n{}", JsonMapper.toJson(query, true));
 
-            try {
-                Statement statement = connection.createStatement();
-                ResultSet rs = statement.executeQuery(SELECT_CUSTOMERS);
+        List<Object> parameters = new ArrayList<>();
+        String sql = buildCustomerQuery(query, parameters);
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindParameters(statement, parameters);
+            try (ResultSet rs = statement.executeQuery()) {
                 List<CustomerPojo> result = new ArrayList<>();
                 while (rs.next()) {
-                    result.add(fillCustomerPojo(rs));
+                    result.add(fillCustomerPojo(rs, query.getFields()));
                 }
                 return result;
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
             }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public List<CustomerPojo> getCustomers(Collection<UUID> ids) {
+        logger.debug("Method 'getCustomers' was called for {} ids.", ids.size());
+
+        Map<UUID, CustomerPojo> customers = new HashMap<>();
+        for (CustomerPojo customer : selectByIds(SELECT_CUSTOMERS_BY_IDS, ids, this::fillCustomerPojo)) {
+            customers.put(customer.id, customer);
+        }
+
+        // Возвращаем в порядке запрошенных id, ненайденные пропускаем.
+        return ids.stream()
+                .distinct()
+                .map(customers::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Page<CustomerPojo> getCustomers(CustomerQuery query, PageRequest pageRequest) {
+        logger.debug("Method 'getCustomers' was called with query: \n{}", JsonMapper.toJson(query, true));
+
+        KeysetCursor after = pageRequest.getAfter() == null ? null : KeysetCursor.decode(pageRequest.getAfter());
+        CustomerField sortField = query.getSortField() == CustomerField.ID ? null : query.getSortField();
+
+        List<Object> parameters = new ArrayList<>();
+        String sql = buildCustomerPageQuery(query, sortField, after, pageRequest.getLimit(), parameters);
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindParameters(statement, parameters);
+            try (ResultSet rs = statement.executeQuery()) {
+                List<CustomerPojo> items = new ArrayList<>();
+                Object lastSortValue = null;
+                String nextCursor = null;
+                while (rs.next()) {
+                    if (items.size() == pageRequest.getLimit()) {
+                        CustomerPojo last = items.get(items.size() - 1);
+                        nextCursor = new KeysetCursor(lastSortValue, last.id).encode();
+                        break;
+                    }
+
+                    items.add(fillCustomerPojo(rs, query.getFields()));
+                    lastSortValue = sortField == null ? null : rs.getObject(sortField.getColumn());
+                }
+                return new Page<>(items, nextCursor);
+            }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     public CustomerPojo getCustomer(UUID id) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'getCustomer' was called with data '%s'.", id));
+        logger.debug(String.format("Method 'getCustomer' was called with data '%s'.", id));
 
-            try {
-                Statement statement = connection.createStatement();
-                ResultSet rs = statement.executeQuery(String.format(SELECT_CUSTOMER, id));
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMER)) {
+            statement.setBytes(1, UuidConverter.toBytes(id));
+            try (ResultSet rs = statement.executeQuery()) {
                 if (rs.next()) {
                     return fillCustomerPojo(rs);
                 } else {
-                    throw new IllegalArgumentException("Customer with id '" + id + " was not found.");
+                    throw new IllegalArgumentException("Customer with id '" + id + "' was not found.");
                 }
-            } catch (SQLException ex) {
-                logger.debug(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
             }
+        } catch (SQLException ex) {
+            logger.debug(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     public CustomerPojo getCustomerByLogin(String customerLogin) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'lookupCustomerByLogin' was called with data '%s'.", customerLogin));
+        logger.debug(String.format("Method 'lookupCustomerByLogin' was called with data '%s'.", customerLogin));
 
-            try {
-                Statement statement = connection.createStatement();
-                ResultSet rs = statement.executeQuery(String.format(SELECT_CUSTOMER_BY_LOGIN, customerLogin));
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMER_BY_LOGIN)) {
+            statement.setString(1, customerLogin);
+            try (ResultSet rs = statement.executeQuery()) {
                 if (rs.next()) {
                     return fillCustomerPojo(rs);
                 } else {
-                    throw new IllegalArgumentException("Customer with login '" + customerLogin + " was not found");
+                    throw new IllegalArgumentException("Customer with login '" + customerLogin + "' was not found.");
                 }
-            } catch (SQLException ex) {
-                logger.debug(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
             }
+        } catch (SQLException ex) {
+            logger.debug(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
-    public PlanPojo createPlan(PlanPojo plan) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'createPlan' was called with data '%s'.", plan));
+    @Override
+    public CustomerStatisticPojo getCustomerStatistic(Collection<UUID> customerIds) {
+        logger.debug("Method 'getCustomerStatistic' was called for {} customers.", customerIds.size());
 
-            plan.id = UUID.randomUUID();
-            try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(
-                        String.format(
-                                INSERT_PLAN,
-                                plan.id,
-                                plan.name,
-                                plan.details,
-                                plan.fee));
-                return plan;
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+        CustomerStatisticPojo result = new CustomerStatisticPojo();
+        if (customerIds.isEmpty()) {
+            return result;
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(customerIds.size(), "?"));
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(String.format(SELECT_CUSTOMER_STATISTIC, placeholders))) {
+            // Список id привязывается к каждому из трех подзапросов.
+            int index = 1;
+            for (int i = 0; i < 3; i++) {
+                for (UUID customerId : customerIds) {
+                    statement.setBytes(index++, UuidConverter.toBytes(customerId));
+                }
             }
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                result.customerCount = rs.getInt("customer_count");
+                result.overallBalance = rs.getLong("overall_balance");
+                result.overallFee = rs.getLong("overall_fee");
+                return result;
+            }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public List<CustomerSummaryPojo> getCustomerSummaries(Collection<UUID> customerIds) {
+        logger.debug("Method 'getCustomerSummaries' was called for {} customers.", customerIds.size());
+
+        return selectByIds(SELECT_CUSTOMER_SUMMARIES, customerIds, this::fillCustomerSummaryPojo);
+    }
+
+    public PlanPojo createPlan(PlanPojo plan) {
+        logger.debug(String.format("Method 'createPlan' was called with data '%s'.", plan));
+
+        plan.id = UUID.randomUUID();
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT_PLAN)) {
+            statement.setBytes(1, UuidConverter.toBytes(plan.id));
+            statement.setString(2, plan.name);
+            statement.setString(3, plan.details);
+            statement.setInt(4, plan.fee);
+            statement.executeUpdate();
+            return plan;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     @Override
     public void deletePlan(UUID id) {
-        synchronized (generalMutex) {
-            logger.debug(String.format("Method 'deletePlan' was called with data: \n%s", id));
+        logger.debug(String.format("Method 'deletePlan' was called with data: \n%s", id));
 
-            try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(String.format(DELETE_PLAN, id));
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+        inTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(REMOVE_PLAN_FROM_SUMMARIES)) {
+                statement.setBytes(1, UuidConverter.toBytes(id));
+                statement.setBytes(2, UuidConverter.toBytes(id));
+                statement.executeUpdate();
             }
-        }
+            executeUpdate(connection, DELETE_PLAN, id);
+            return null;
+        });
     }
 
     @Override
     public List<PlanPojo> getPlans() {
-        synchronized (generalMutex) {
-            logger.debug("Method 'getPlans' was called.");
+        logger.debug("Method 'getPlans' was called.");
 
-            try {
-                Statement statement = connection.createStatement();
-                ResultSet rs = statement.executeQuery(SELECT_PLANS);
-                List<PlanPojo> result = new ArrayList<>();
-                while (rs.next()) {
-                    PlanPojo planData = new PlanPojo();
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_PLANS);
+             ResultSet rs = statement.executeQuery()) {
+            List<PlanPojo> result = new ArrayList<>();
+            while (rs.next()) {
+                result.add(fillPlanPojo(rs));
+            }
+            return result;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
 
-                    planData.id = UUID.fromString(rs.getString(1));
-                    planData.name = rs.getString(2);
-                    planData.details = rs.getString(3);
-                    planData.fee = rs.getInt(4);
+    @Override
+    public Page<PlanPojo> getPlans(UUID customerId, PageRequest pageRequest) {
+        logger.debug("Method 'getPlans' was called with data '{}'.", customerId);
 
-                    result.add(planData);
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(customerId == null ? SELECT_PLANS_PAGE : SELECT_AVAILABLE_PLANS_PAGE)) {
+            int index = 1;
+            statement.setBytes(index++, UuidConverter.toBytes(firstIdOfPage(pageRequest)));
+            if (customerId != null) {
+                statement.setBytes(index++, UuidConverter.toBytes(customerId));
+            }
+            statement.setInt(index, pageRequest.getLimit() + 1);
+            try (ResultSet rs = statement.executeQuery()) {
+                List<PlanPojo> items = new ArrayList<>();
+                while (rs.next()) {
+                    items.add(fillPlanPojo(rs));
                 }
-                return result;
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+                return toPage(items, pageRequest, plan -> plan.id);
             }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     @Override
-    public SubscriptionPojo createSubscription(SubscriptionPojo subscriptionPojo) {
-        synchronized (generalMutex) {
-            logger.debug("Method 'createSubscription' was called with data '{}'.", subscriptionPojo);
+    public SubscriptionPojo purchaseSubscription(SubscriptionPojo subscriptionPojo, long expectedCustomerVersion) {
+        logger.debug("Method 'purchaseSubscription' was called with data '{}', version '{}'.", subscriptionPojo, expectedCustomerVersion);
 
-            subscriptionPojo.id = UUID.randomUUID();
-            try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(
-                        String.format(
-                                INSERT_SUBSCRIPTION,
-                                subscriptionPojo.id,
-                                subscriptionPojo.customerId,
-                                subscriptionPojo.planId));
-                return subscriptionPojo;
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+        UUID id = UUID.randomUUID();
+        return inTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(CHARGE_CUSTOMER)) {
+                statement.setBytes(1, UuidConverter.toBytes(subscriptionPojo.customerId));
+                statement.setLong(2, expectedCustomerVersion);
+                statement.setBytes(3, UuidConverter.toBytes(subscriptionPojo.planId));
+                if (statement.executeUpdate() == 0) {
+                    return null;
+                }
             }
-        }
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SUBSCRIPTION)) {
+                statement.setBytes(1, UuidConverter.toBytes(id));
+                statement.setBytes(2, UuidConverter.toBytes(subscriptionPojo.customerId));
+                statement.setBytes(3, UuidConverter.toBytes(subscriptionPojo.planId));
+                statement.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException ex) {
+                throw new IllegalArgumentException("Customer already has a subscription to plan '" + subscriptionPojo.planId + "'.", ex);
+            }
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_PLAN_CHARGE)) {
+                statement.setBytes(1, UuidConverter.toBytes(subscriptionPojo.customerId));
+                statement.setBytes(2, UuidConverter.toBytes(subscriptionPojo.planId));
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(ADD_PURCHASE_TO_SUMMARY)) {
+                statement.setBytes(1, UuidConverter.toBytes(subscriptionPojo.planId));
+                statement.setBytes(2, UuidConverter.toBytes(subscriptionPojo.customerId));
+                statement.executeUpdate();
+            }
+
+            subscriptionPojo.id = id;
+            return subscriptionPojo;
+        });
     }
 
     @Override
     public void deleteSubscription(UUID id) {
-        synchronized (generalMutex) {
-            logger.debug("Method 'deleteSubscription' was called with data: \n{}", id);
+        logger.debug("Method 'deleteSubscription' was called with data: \n{}", id);
 
-            try {
-                Statement statement = connection.createStatement();
-                statement.executeUpdate(String.format(DELETE_SUBSCRIPTION, id));
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
+        inTransaction(connection -> {
+            // Сначала вычитаем подписку из агрегатов, пока ее строка еще существует.
+            executeUpdate(connection, REMOVE_SUBSCRIPTION_FROM_SUMMARY, id);
+            executeUpdate(connection, DELETE_SUBSCRIPTION, id);
+            return null;
+        });
+    }
+
+    @Override
+    public SubscriptionPojo getSubscription(UUID id) {
+        logger.debug("Method 'getSubscription' was called with data '{}'.", id);
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_SUBSCRIPTION)) {
+            statement.setBytes(1, UuidConverter.toBytes(id));
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? fillSubscriptionPojo(rs) : null;
             }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     @Override
     public List<SubscriptionPojo> getSubscriptions() {
-        synchronized (generalMutex) {
-            logger.debug("Method 'getSubscriptions' was called.");
+        logger.debug("Method 'getSubscriptions' was called.");
 
-            try {
-                Statement statement = connection.createStatement();
-                ResultSet rs = statement.executeQuery(SELECT_ALL_SUBSCRIPTIONS);
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_ALL_SUBSCRIPTIONS);
+             ResultSet rs = statement.executeQuery()) {
+            List<SubscriptionPojo> result = new ArrayList<>();
+            while (rs.next()) {
+                result.add(fillSubscriptionPojo(rs));
+            }
+            return result;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public List<SubscriptionPojo> getSubscriptions(UUID customerId) {
+        logger.debug("Method 'getSubscriptions' was called.");
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_SUBSCRIPTIONS)) {
+            statement.setBytes(1, UuidConverter.toBytes(customerId));
+            try (ResultSet rs = statement.executeQuery()) {
                 List<SubscriptionPojo> result = new ArrayList<>();
                 while (rs.next()) {
                     result.add(fillSubscriptionPojo(rs));
                 }
                 return result;
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
             }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
     @Override
-    public List<SubscriptionPojo> getSubscriptions(UUID customerId) {
-        synchronized (generalMutex) {
-            logger.debug("Method 'getSubscriptions' was called.");
+    public List<SubscriptionPojo> getSubscriptions(Collection<UUID> customerIds) {
+        logger.debug("Method 'getSubscriptions' was called for {} customers.", customerIds.size());
 
-            try {
-                Statement statement = connection.createStatement();
-                ResultSet rs = statement.executeQuery(String.format(SELECT_SUBSCRIPTIONS, customerId));
+        return selectByIds(SELECT_SUBSCRIPTIONS_BY_CUSTOMERS, customerIds, this::fillSubscriptionPojo);
+    }
+
+    @Override
+    public List<SubscriptionPojo> getSubscriptionsWithPlans(UUID customerId, boolean includePlanDetails) {
+        logger.debug("Method 'getSubscriptionsWithPlans' was called with data '{}'.", customerId);
+
+        String sql = String.format(
+                SELECT_SUBSCRIPTIONS_WITH_PLANS,
+                includePlanDetails ? PLAN_DETAILS_COLUMN : "",
+                customerId == null ? "" : SUBSCRIPTION_CUSTOMER_CONDITION);
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (customerId != null) {
+                statement.setBytes(1, UuidConverter.toBytes(customerId));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
                 List<SubscriptionPojo> result = new ArrayList<>();
                 while (rs.next()) {
-                    result.add(fillSubscriptionPojo(rs));
+                    result.add(fillSubscriptionWithPlanPojo(rs, includePlanDetails));
                 }
                 return result;
-            } catch (SQLException ex) {
-                logger.error(ex.getMessage(), ex);
-                throw new RuntimeException(ex);
             }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public Page<SubscriptionPojo> getSubscriptions(UUID customerId, PageRequest pageRequest) {
+        logger.debug("Method 'getSubscriptions' was called with data '{}'.", customerId);
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(customerId == null ? SELECT_ALL_SUBSCRIPTIONS_PAGE : SELECT_SUBSCRIPTIONS_PAGE)) {
+            int index = 1;
+            if (customerId != null) {
+                statement.setBytes(index++, UuidConverter.toBytes(customerId));
+            }
+            statement.setBytes(index++, UuidConverter.toBytes(firstIdOfPage(pageRequest)));
+            statement.setInt(index, pageRequest.getLimit() + 1);
+            try (ResultSet rs = statement.executeQuery()) {
+                List<SubscriptionPojo> items = new ArrayList<>();
+                while (rs.next()) {
+                    items.add(fillSubscriptionPojo(rs));
+                }
+                return toPage(items, pageRequest, subscription -> subscription.id);
+            }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
         }
     }
 
+    @Override
+    public void exportCustomers(RowHandler<CustomerPojo> handler) throws IOException {
+        logger.debug("Method 'exportCustomers' was called.");
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = prepareStreamingStatement(connection, SELECT_CUSTOMERS);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                handler.handle(fillCustomerPojo(rs));
+            }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void exportSubscriptions(UUID customerId, RowHandler<SubscriptionPojo> handler) throws IOException {
+        logger.debug("Method 'exportSubscriptions' was called with data '{}'.", customerId);
+
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = prepareStreamingStatement(connection, customerId == null ? SELECT_ALL_SUBSCRIPTIONS : SELECT_SUBSCRIPTIONS)) {
+            if (customerId != null) {
+                statement.setBytes(1, UuidConverter.toBytes(customerId));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(fillSubscriptionPojo(rs));
+                }
+            }
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Checks the database on a free pooled connection without waiting for one: if all of them are busy,
+     * the check fails at once. The check itself takes at most POOL_VALIDATION_TIMEOUT_SECONDS
+     * (plus POOL_CONNECT_TIMEOUT_MILLIS if a new connection has to be opened).
+     */
+    public ConnectionPoolStatsPojo checkHealth() {
+        try (Connection connection = connectionPool.tryGetConnection()) {
+            if (connection == null) {
+                throw new RuntimeException(String.format(
+                        "All %s database connections are busy.",
+                        POOL_MAX_SIZE));
+            }
+            if (!connection.isValid(POOL_VALIDATION_TIMEOUT_SECONDS)) {
+                throw new RuntimeException(String.format(
+                        "Database did not answer in %s seconds.",
+                        POOL_VALIDATION_TIMEOUT_SECONDS));
+            }
+            return connectionPool.getStats();
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public AccountTokenStore getAccountTokenStore() {
+        return accountTokens;
+    }
+
+    /**
+     * Maximum number of pooled connections, i.e. how many statements can run against the database at once.
+     */
+    public int getPoolMaxSize() {
+        return POOL_MAX_SIZE;
+    }
+
+    private static void executeUpdate(Connection connection, String sql, UUID id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setBytes(1, UuidConverter.toBytes(id));
+            statement.executeUpdate();
+        }
+    }
+
+    private static void insertCustomers(Connection connection, List<CustomerPojo> customers) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_CUSTOMER)) {
+            for (CustomerPojo customer : customers) {
+                statement.setBytes(1, UuidConverter.toBytes(customer.id));
+                statement.setString(2, customer.firstName);
+                statement.setString(3, customer.lastName);
+                statement.setString(4, customer.login);
+                statement.setString(5, customer.pass);
+                statement.setInt(6, customer.balance);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_CUSTOMER_SUMMARY)) {
+            for (CustomerPojo customer : customers) {
+                statement.setBytes(1, UuidConverter.toBytes(customer.id));
+                statement.setLong(2, customer.balance);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Returns the error caused by the inserted data itself (duplicate key, too long value and so on),
+     * or null if the failure is not related to a particular row.
+     */
+    private static SQLException rowErrorCause(SQLException ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException)cause).getSQLState();
+                // Class 22 - data exception, class 23 - integrity constraint violation.
+                if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"))) {
+                    return (SQLException)cause;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRowError(SQLException ex) {
+        return rowErrorCause(ex) != null;
+    }
+
+    /**
+     * Selects rows by a list of ids with queries of the form {@code ... IN (%s)}, IN_CHUNK_SIZE ids per query,
+     * all on one pooled connection. The last chunk is padded with a repeated id, so every query has the same
+     * text and is served by one cached prepared statement.
+     */
+    private <T> List<T> selectByIds(String sqlFormat, Collection<UUID> ids, RowMapper<T> mapper) {
+        List<UUID> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        if (distinctIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int chunkSize = Math.min(IN_CHUNK_SIZE, distinctIds.size());
+        String sql = String.format(sqlFormat, String.join(", ", Collections.nCopies(chunkSize, "?")));
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            List<T> result = new ArrayList<>();
+            for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+                List<UUID> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+                for (int i = 0; i < chunkSize; i++) {
+                    statement.setBytes(i + 1, UuidConverter.toBytes(chunk.get(Math.min(i, chunk.size() - 1))));
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(mapper.map(rs));
+                    }
+                }
+            }
+            return result;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Runs the work in one transaction on a pooled connection. If the work fails, the transaction
+     * is rolled back when the connection returns to the pool.
+     */
+    private <T> T inTransaction(TransactionWork<T> work) {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            T result = work.execute(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException ex) {
+            logger.error(ex.getMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @FunctionalInterface
+    private interface TransactionWork<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Builds SELECT for the customer query. Only column names from {@link CustomerField}
+     * get into the SQL text, all values are passed as bind parameters.
+     */
+    private static String buildCustomerQuery(CustomerQuery query, List<Object> parameters) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        sql.append(query.getFields().stream()
+                .map(DBService::selectColumn)
+                .collect(Collectors.joining(", ")));
+        sql.append(" FROM CUSTOMER");
+
+        List<String> conditions = buildCustomerConditions(query, parameters);
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+
+        if (query.getSortField() != null) {
+            sql.append(" ORDER BY ").append(expression(query.getSortField()));
+            sql.append(query.isSortDescending() ? " DESC" : " ASC");
+        }
+
+        if (query.getLimit() != null) {
+            sql.append(" LIMIT ?");
+            parameters.add(query.getLimit());
+        }
+
+        return sql.toString();
+    }
+
+    private static List<String> buildCustomerConditions(CustomerQuery query, List<Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (query.getId() != null) {
+            conditions.add("id = ?");
+            parameters.add(UuidConverter.toBytes(query.getId()));
+        }
+        if (query.getLogin() != null) {
+            conditions.add("login = ?");
+            parameters.add(query.getLogin());
+        }
+        if (query.getFirstName() != null) {
+            conditions.add("first_name = ?");
+            parameters.add(query.getFirstName());
+        }
+        if (query.getLastName() != null) {
+            conditions.add("last_name = ?");
+            parameters.add(query.getLastName());
+        }
+        if (query.getMinBalance() != null) {
+            conditions.add(BALANCE_EXPRESSION + " >= ?");
+            parameters.add(query.getMinBalance());
+        }
+        if (query.getMaxBalance() != null) {
+            conditions.add(BALANCE_EXPRESSION + " <= ?");
+            parameters.add(query.getMaxBalance());
+        }
+        return conditions;
+    }
+
+    /**
+     * Builds SELECT for one page of customers. Rows are ordered by (sort column, id), so the next
+     * page starts right after the (sort value, id) pair stored in the cursor.
+     */
+    private static String buildCustomerPageQuery(
+            CustomerQuery query,
+            CustomerField sortField,
+            KeysetCursor after,
+            int limit,
+            List<Object> parameters) {
+        Set<CustomerField> columns = EnumSet.copyOf(query.getFields());
+        if (sortField != null) {
+            columns.add(sortField);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        sql.append(columns.stream()
+                .map(DBService::selectColumn)
+                .collect(Collectors.joining(", ")));
+        sql.append(" FROM CUSTOMER");
+
+        List<String> conditions = buildCustomerConditions(query, parameters);
+        String comparison = query.isSortDescending() ? "<" : ">";
+        if (after != null) {
+            if (sortField == null) {
+                conditions.add("id " + comparison + " ?");
+            } else {
+                String column = expression(sortField);
+                conditions.add(String.format("(%s %s ? OR (%s = ? AND id %s ?))", column, comparison, column, comparison));
+                parameters.add(after.getSortValue());
+                parameters.add(after.getSortValue());
+            }
+            parameters.add(UuidConverter.toBytes(after.getId()));
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+
+        String direction = query.isSortDescending() ? " DESC" : " ASC";
+        sql.append(" ORDER BY ");
+        if (sortField != null) {
+            sql.append(expression(sortField)).append(direction).append(", ");
+        }
+        sql.append("id").append(direction);
+
+        // Одна лишняя строка показывает, что есть следующая страница.
+        sql.append(" LIMIT ?");
+        parameters.add(limit + 1);
+
+        return sql.toString();
+    }
+
+    /**
+     * SQL expression of the field: the column itself or, for balance, snapshot + ledger tail.
+     */
+    private static String expression(CustomerField field) {
+        return field == CustomerField.BALANCE ? BALANCE_EXPRESSION : field.getColumn();
+    }
+
+    private static String selectColumn(CustomerField field) {
+        return field == CustomerField.BALANCE ? BALANCE_EXPRESSION + " AS balance" : field.getColumn();
+    }
+
+    private static <T> Page<T> toPage(List<T> rows, PageRequest pageRequest, Function<T, UUID> idOf) {
+        if (rows.size() <= pageRequest.getLimit()) {
+            return new Page<>(rows, null);
+        }
+
+        List<T> items = new ArrayList<>(rows.subList(0, pageRequest.getLimit()));
+        String nextCursor = new KeysetCursor(null, idOf.apply(items.get(items.size() - 1))).encode();
+        return new Page<>(items, nextCursor);
+    }
+
+    private static UUID firstIdOfPage(PageRequest pageRequest) {
+        return pageRequest.getAfter() == null ? FIRST_PAGE_ID : KeysetCursor.decode(pageRequest.getAfter()).getId();
+    }
+
+    /**
+     * Forward-only read-only statement with fetch size Integer.MIN_VALUE: MySQL Connector/J
+     * then streams rows one by one instead of loading the whole result set into memory.
+     * The connection can't run other statements until the result set is closed.
+     */
+    private static PreparedStatement prepareStreamingStatement(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        return statement;
+    }
+
+    private static void bindParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+
+    // Для запросов, выбирающих CUSTOMER_COLUMNS.
     private CustomerPojo fillCustomerPojo(ResultSet resultSet) throws SQLException {
+        CustomerPojo customerPojo = fillCustomerPojo(resultSet, ALL_CUSTOMER_FIELDS);
+        customerPojo.version = resultSet.getLong("version");
+
+        return customerPojo;
+    }
+
+    private CustomerPojo fillCustomerPojo(ResultSet resultSet, Set<CustomerField> fields) throws SQLException {
         CustomerPojo customerPojo = new CustomerPojo();
 
-        customerPojo.id = UUID.fromString(resultSet.getString(1));
-        customerPojo.firstName = resultSet.getString(2);
-        customerPojo.lastName = resultSet.getString(3);
-        customerPojo.login = resultSet.getString(4);
-        customerPojo.pass = resultSet.getString(5);
-        customerPojo.balance = resultSet.getInt(6);
+        customerPojo.id = UuidConverter.fromBytes(resultSet.getBytes("id"));
+        if (fields.contains(CustomerField.FIRST_NAME)) {
+            customerPojo.firstName = resultSet.getString("first_name");
+        }
+        if (fields.contains(CustomerField.LAST_NAME)) {
+            customerPojo.lastName = resultSet.getString("last_name");
+        }
+        if (fields.contains(CustomerField.LOGIN)) {
+            customerPojo.login = resultSet.getString("login");
+        }
+        if (fields.contains(CustomerField.PASS)) {
+            customerPojo.pass = resultSet.getString("pass");
+        }
+        if (fields.contains(CustomerField.BALANCE)) {
+            customerPojo.balance = resultSet.getInt("balance");
+        }
 
         return customerPojo;
     }
 
+    private PlanPojo fillPlanPojo(ResultSet resultSet) throws SQLException {
+        PlanPojo planPojo = new PlanPojo();
+
+        planPojo.id = UuidConverter.fromBytes(resultSet.getBytes("id"));
+        planPojo.name = resultSet.getString("name");
+        planPojo.details = resultSet.getString("details");
+        planPojo.fee = resultSet.getInt("fee");
+
+        return planPojo;
+    }
+
     private SubscriptionPojo fillSubscriptionPojo(ResultSet resultSet) throws SQLException {
         SubscriptionPojo subscriptionPojo = new SubscriptionPojo();
 
-        subscriptionPojo.id = UUID.fromString(resultSet.getString(1));
-        subscriptionPojo.customerId = UUID.fromString(resultSet.getString(2));
-        subscriptionPojo.planId = UUID.fromString(resultSet.getString(3));
+        subscriptionPojo.id = UuidConverter.fromBytes(resultSet.getBytes("id"));
+        subscriptionPojo.customerId = UuidConverter.fromBytes(resultSet.getBytes("customer_id"));
+        subscriptionPojo.planId = UuidConverter.fromBytes(resultSet.getBytes("plan_id"));
+
+        return subscriptionPojo;
+    }
+
+    private CustomerSummaryPojo fillCustomerSummaryPojo(ResultSet resultSet) throws SQLException {
+        CustomerSummaryPojo customerSummaryPojo = new CustomerSummaryPojo();
+
+        customerSummaryPojo.customerId = UuidConverter.fromBytes(resultSet.getBytes("customer_id"));
+        customerSummaryPojo.balance = resultSet.getLong("balance");
+        customerSummaryPojo.totalFee = resultSet.getLong("total_fee");
+        customerSummaryPojo.subscriptionCount = resultSet.getInt("subscription_count");
+
+        return customerSummaryPojo;
+    }
+
+    private SubscriptionPojo fillSubscriptionWithPlanPojo(ResultSet resultSet, boolean includePlanDetails) throws SQLException {
+        SubscriptionPojo subscriptionPojo = fillSubscriptionPojo(resultSet);
+
+        // План мог быть удален, тогда LEFT JOIN вернет NULL и поля плана останутся пустыми.
+        subscriptionPojo.planName = resultSet.getString("plan_name");
+        int planFee = resultSet.getInt("plan_fee");
+        subscriptionPojo.planFee = resultSet.wasNull() ? null : planFee;
+        if (includePlanDetails) {
+            subscriptionPojo.planDetails = resultSet.getString("plan_details");
+        }
 
         return subscriptionPojo;
     }
@@ -358,6 +1104,7 @@ public class DBService implements IDBService{
         String connStr = "jdbc:mysql://localhost:3306/testmethods?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=UTC&useSSL=false";
         // Note: uncomment below line if you want to use the docker compose.
         //connStr = "jdbc:mysql://mysql_db_container:3306/testmethods?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=UTC&useSSL=false";
+        connStr += STATEMENT_CACHE_OPTIONS + BATCH_OPTIONS + CONNECT_OPTIONS;
         String user = "user";
         String pass = "pass";
         logger.debug("MySQL JDBC Driver Registered.");
@@ -366,17 +1113,31 @@ public class DBService implements IDBService{
         logger.debug("Connection login: " + user);
         logger.debug("Connection pass: " + pass);
 
+        connectionPool = new ConnectionPool(
+                logger,
+                connStr,
+                user,
+                pass,
+                POOL_MAX_SIZE,
+                POOL_ACQUIRE_TIMEOUT_MILLIS,
+                POOL_IDLE_TIMEOUT_MILLIS,
+                POOL_VALIDATION_TIMEOUT_SECONDS);
+
+        // Сразу открываем соединение и обновляем схему, чтобы ошибки конфигурации были видны при старте.
         try {
-            connection = DriverManager.getConnection(connStr, user, pass);
+            new SchemaMigrator(logger, connectionPool).migrate();
+            logger.debug("You made it, take control your database now!");
         } catch (SQLException ex) {
             logger.error("Connection Failed.", ex);
+            connectionPool.close();
             throw new RuntimeException(ex);
         }
 
-        if (connection != null) {
-            logger.debug("You made it, take control your database now!");
-        } else {
-            logger.error("Failed to make connection!");
-        }
+        balanceLedger = new BalanceLedger(
+                logger,
+                connectionPool,
+                LEDGER_MAX_BATCH_SIZE,
+                LEDGER_SNAPSHOT_INTERVAL_MILLIS,
+                LEDGER_APPEND_TIMEOUT_MILLIS);
     }
 }
@@ -2,25 +2,71 @@ package org.nsu.fit.tm_backend.database;
 
 import org.nsu.fit.tm_backend.database.data.AccountTokenPojo;
 import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerSummaryPojo;
 import org.nsu.fit.tm_backend.database.data.PlanPojo;
 import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.database.query.CustomerQuery;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 public interface IDBService {
     CustomerPojo createCustomer(CustomerPojo customerPojo);
 
+    /**
+     * Inserts the customers with JDBC batches in one transaction and assigns their ids.
+     * If some rows are rejected by the database, the rest are inserted one by one.
+     *
+     * @return an error message for every customer that was not inserted, null for the inserted ones
+     */
+    List<String> createCustomers(List<CustomerPojo> customers);
+
     void editCustomer(CustomerPojo customerPojo);
 
+    /**
+     * Atomically adds money to the customer's balance and returns the customer as it is after the update.
+     */
+    CustomerPojo addCustomerBalance(UUID customerId, int money);
+
     void deleteCustomer(UUID id);
 
     List<CustomerPojo> getCustomers();
 
+    List<CustomerPojo> getCustomers(CustomerQuery query);
+
+    /**
+     * Returns the customers with the given ids in the order of the ids, skipping missing ones.
+     * The ids are looked up with chunked IN queries.
+     */
+    List<CustomerPojo> getCustomers(Collection<UUID> ids);
+
+    Page<CustomerPojo> getCustomers(CustomerQuery query, PageRequest pageRequest);
+
+    /**
+     * Streams all customers to the handler without loading them into memory.
+     */
+    void exportCustomers(RowHandler<CustomerPojo> handler) throws IOException;
+
     CustomerPojo getCustomer(UUID id);
 
     CustomerPojo getCustomerByLogin(String customerLogin);
 
+    /**
+     * Aggregates balance and subscription fees of the given customers with one SQL statement;
+     * customerCount is the number of the given ids that were found.
+     */
+    CustomerStatisticPojo getCustomerStatistic(Collection<UUID> customerIds);
+
+    /**
+     * Returns the maintained summaries of the given customers; customers that were not found are skipped.
+     */
+    List<CustomerSummaryPojo> getCustomerSummaries(Collection<UUID> customerIds);
+
     AccountTokenPojo createAccountToken(AccountTokenPojo accountTokenPojo);
 
     void checkAccountToken(String authenticationToken);
@@ -31,11 +77,47 @@ public interface IDBService {
 
     List<PlanPojo> getPlans();
 
-    SubscriptionPojo createSubscription(SubscriptionPojo subscriptionPojo);
+    /**
+     * Returns a page of plans; if customerId is not null, plans the customer is subscribed to are skipped.
+     */
+    Page<PlanPojo> getPlans(UUID customerId, PageRequest pageRequest);
+
+    /**
+     * Creates the subscription and charges the plan fee in one transaction, provided the customer's version
+     * still equals expectedCustomerVersion and the balance covers the fee.
+     *
+     * @return the created subscription or null if the customer was changed concurrently (or can't afford the plan)
+     * @throws IllegalArgumentException if the customer already has a subscription to the plan
+     */
+    SubscriptionPojo purchaseSubscription(SubscriptionPojo subscriptionPojo, long expectedCustomerVersion);
 
     void deleteSubscription(UUID id);
 
+    SubscriptionPojo getSubscription(UUID id);
+
     List<SubscriptionPojo> getSubscriptions();
 
     List<SubscriptionPojo> getSubscriptions(UUID customerId);
+
+    /**
+     * Returns subscriptions of all the given customers, looked up with chunked IN queries.
+     */
+    List<SubscriptionPojo> getSubscriptions(Collection<UUID> customerIds);
+
+    /**
+     * Returns subscriptions of the customer (or of all customers if customerId is null) joined with their plans
+     * in one query; plan details are selected only if includePlanDetails is true.
+     */
+    List<SubscriptionPojo> getSubscriptionsWithPlans(UUID customerId, boolean includePlanDetails);
+
+    /**
+     * Returns a page of subscriptions of the customer or of all customers if customerId is null.
+     */
+    Page<SubscriptionPojo> getSubscriptions(UUID customerId, PageRequest pageRequest);
+
+    /**
+     * Streams subscriptions of the customer (or of all customers if customerId is null) to the handler
+     * without loading them into memory.
+     */
+    void exportSubscriptions(UUID customerId, RowHandler<SubscriptionPojo> handler) throws IOException;
 }
@@ -0,0 +1,51 @@
+package org.nsu.fit.tm_backend.database;
+
+import org.nsu.fit.tm_backend.shared.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Opaque pagination cursor: the id of the last row of a page and, if rows are sorted
+ * by another column, the value of that column.
+ */
+final class KeysetCursor {
+    private final Object sortValue;
+    private final UUID id;
+
+    KeysetCursor(Object sortValue, UUID id) {
+        this.sortValue = sortValue;
+        this.id = id;
+    }
+
+    Object getSortValue() {
+        return sortValue;
+    }
+
+    UUID getId() {
+        return id;
+    }
+
+    String encode() {
+        String json = JsonMapper.toJson(Arrays.asList(sortValue, id.toString()), false);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static KeysetCursor decode(String cursor) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            List<?> values = JsonMapper.fromJson(json, List.class);
+            Object sortValue = values.get(0);
+            // Значение сортировки подставляется в запрос параметром, поэтому допускаются только скаляры.
+            if (values.size() != 2 || !(sortValue == null || sortValue instanceof String || sortValue instanceof Number)) {
+                throw new IllegalArgumentException("Unexpected cursor values.");
+            }
+            return new KeysetCursor(sortValue, UUID.fromString((String)values.get(1)));
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'.", ex);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.nsu.fit.tm_backend.database;
+
+import java.io.IOException;
+
+/**
+ * Receives rows of a streamed query one by one, see {@link IDBService#exportCustomers}.
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+    void handle(T row) throws IOException;
+}
@@ -0,0 +1,201 @@
+package org.nsu.fit.tm_backend.database;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies numbered SQL scripts from {@code db/migration} and records them in SCHEMA_VERSION.
+ *
+ * The version of a script is its position in {@link #MIGRATIONS} (starting from 1), so new
+ * scripts must only be appended to the end of the list.
+ *
+ * A script may start with a {@code -- skip-if: <query>} line: if the query returns a non-zero number,
+ * the script is recorded as applied without running it, so a script that failed after its last DDL
+ * statement doesn't block the next start.
+ */
+class SchemaMigrator {
+    private static final String MIGRATIONS_LOCATION = "db/migration/";
+    private static final String[] MIGRATIONS = {
+            "V1__create_tables.sql",
+            "V2__binary_uuid_keys.sql",
+            "V3__customer_summary.sql",
+            "V4__balance_ledger.sql",
+            "V5__subscription_purchase.sql",
+    };
+
+    private static final String LOCK_NAME = "testmethods_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private static final String CREATE_SCHEMA_VERSION = "CREATE TABLE IF NOT EXISTS SCHEMA_VERSION ("
+            + "version INT NOT NULL PRIMARY KEY, "
+            + "script VARCHAR(255) NOT NULL, "
+            + "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)";
+    private static final String SELECT_SCHEMA_VERSION = "SELECT COALESCE(MAX(version), 0) FROM SCHEMA_VERSION";
+    private static final String INSERT_SCHEMA_VERSION = "INSERT INTO SCHEMA_VERSION(version, script) values (?, ?)";
+    private static final String GET_LOCK = "SELECT GET_LOCK(?, ?)";
+
+    // Директива в начале скрипта: если запрос вернул ненулевое число, изменения скрипта уже есть в схеме
+    // (например, скрипт упал после последнего DDL), и он только записывается в SCHEMA_VERSION.
+    private static final String SKIP_IF_DIRECTIVE = "-- skip-if:";
+    private static final String RELEASE_LOCK = "SELECT RELEASE_LOCK(?)";
+
+    private final Logger logger;
+    private final ConnectionPool connectionPool;
+
+    SchemaMigrator(Logger logger, ConnectionPool connectionPool) {
+        this.logger = logger;
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Brings the schema up to the latest version. Several nodes may start at the same time,
+     * so the migration runs under a MySQL named lock.
+     */
+    void migrate() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            acquireLock(connection);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(CREATE_SCHEMA_VERSION);
+                }
+
+                int currentVersion = getCurrentVersion(connection);
+                logger.debug("Current schema version: {}.", currentVersion);
+
+                for (int version = currentVersion + 1; version <= MIGRATIONS.length; version++) {
+                    apply(connection, version, MIGRATIONS[version - 1]);
+                }
+            } finally {
+                releaseLock(connection);
+            }
+        }
+    }
+
+    private void apply(Connection connection, int version, String script) throws SQLException {
+        List<String> lines = readLines(script);
+
+        String skipCondition = getSkipCondition(lines);
+        if (skipCondition != null && isTrue(connection, skipCondition)) {
+            logger.info("Schema migration {}: {} is already in the schema, skipped.", version, script);
+        } else {
+            logger.info("Applying schema migration {}: {}.", version, script);
+
+            // DDL в MySQL не транзакционный, поэтому версия фиксируется только после всех выражений скрипта.
+            for (String sql : readStatements(lines)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SCHEMA_VERSION)) {
+            statement.setInt(1, version);
+            statement.setString(2, script);
+            statement.executeUpdate();
+        }
+    }
+
+    private int getCurrentVersion(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_SCHEMA_VERSION);
+             ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static boolean isTrue(Connection connection, String condition) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(condition);
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() && rs.getLong(1) != 0;
+        }
+    }
+
+    private void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(GET_LOCK)) {
+            statement.setString(1, LOCK_NAME);
+            statement.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Failed to acquire schema migration lock.");
+                }
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(RELEASE_LOCK)) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+
+    private static List<String> readLines(String script) {
+        InputStream is = SchemaMigrator.class.getClassLoader().getResourceAsStream(MIGRATIONS_LOCATION + script);
+        if (is == null) {
+            throw new IllegalStateException("Migration script '" + script + "' was not found.");
+        }
+
+        List<String> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to read migration script '" + script + "'.", ex);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the query of the '-- skip-if:' directive, or null if the script has none.
+     */
+    static String getSkipCondition(List<String> lines) {
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith(SKIP_IF_DIRECTIVE)) {
+                return trimmed.substring(SKIP_IF_DIRECTIVE.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits a script into statements: each statement ends with ';' at the end of a line,
+     * lines starting with '--' are comments.
+     */
+    static List<String> readStatements(List<String> lines) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";")) {
+                String sql = current.toString().trim();
+                result.add(sql.substring(0, sql.length() - 1));
+                current.setLength(0);
+            }
+        }
+
+        if (current.toString().trim().length() > 0) {
+            result.add(current.toString().trim());
+        }
+        return result;
+    }
+}
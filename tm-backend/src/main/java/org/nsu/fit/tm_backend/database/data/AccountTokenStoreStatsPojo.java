@@ -0,0 +1,17 @@
+package org.nsu.fit.tm_backend.database.data;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class AccountTokenStoreStatsPojo {
+    @JsonProperty("size")
+    public int size;
+
+    @JsonProperty("lookups")
+    public long lookups;
+
+    @JsonProperty("misses")
+    public long misses;
+
+    @JsonProperty("evictions")
+    public long evictions;
+}
@@ -0,0 +1,29 @@
+package org.nsu.fit.tm_backend.database.data;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ConnectionPoolStatsPojo {
+    @JsonProperty("max_size")
+    public int maxSize;
+
+    @JsonProperty("open_connections")
+    public int openConnections;
+
+    @JsonProperty("idle_connections")
+    public int idleConnections;
+
+    @JsonProperty("active_connections")
+    public int activeConnections;
+
+    @JsonProperty("acquisitions")
+    public long acquisitions;
+
+    @JsonProperty("acquisition_timeouts")
+    public long acquisitionTimeouts;
+
+    @JsonProperty("average_acquisition_millis")
+    public double averageAcquisitionMillis;
+
+    @JsonProperty("evictions")
+    public long evictions;
+}
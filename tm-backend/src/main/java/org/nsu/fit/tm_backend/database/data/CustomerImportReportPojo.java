@@ -0,0 +1,17 @@
+package org.nsu.fit.tm_backend.database.data;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CustomerImportReportPojo {
+    @JsonProperty("created")
+    public int created;
+
+    @JsonProperty("failed")
+    public int failed;
+
+    @JsonProperty("rows")
+    public List<CustomerImportResultPojo> rows = new ArrayList<>();
+}
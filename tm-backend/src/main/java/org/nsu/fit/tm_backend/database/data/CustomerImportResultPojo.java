@@ -0,0 +1,22 @@
+package org.nsu.fit.tm_backend.database.data;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.UUID;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomerImportResultPojo {
+    // Номер строки во входных данных, начиная с 1 (заголовок CSV не считается).
+    @JsonProperty("row")
+    public int row;
+
+    @JsonProperty("login")
+    public String login;
+
+    @JsonProperty("id")
+    public UUID id;
+
+    @JsonProperty("error")
+    public String error;
+}
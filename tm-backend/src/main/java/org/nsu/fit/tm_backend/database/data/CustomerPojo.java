@@ -1,5 +1,6 @@
 package org.nsu.fit.tm_backend.database.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -9,4 +10,8 @@ import java.util.UUID;
 public class CustomerPojo extends ContactPojo {
     @JsonProperty("id")
     public UUID id;
+
+    // Версия строки для оптимистичных блокировок, наружу не отдается.
+    @JsonIgnore
+    public long version;
 }
@@ -0,0 +1,14 @@
+package org.nsu.fit.tm_backend.database.data;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class CustomerStatisticPojo {
+    @JsonProperty("customer_count")
+    public int customerCount;
+
+    @JsonProperty("overall_balance")
+    public long overallBalance;
+
+    @JsonProperty("overall_fee")
+    public long overallFee;
+}
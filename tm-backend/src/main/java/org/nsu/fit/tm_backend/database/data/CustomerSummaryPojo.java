@@ -0,0 +1,19 @@
+package org.nsu.fit.tm_backend.database.data;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.UUID;
+
+public class CustomerSummaryPojo {
+    @JsonProperty("customer_id")
+    public UUID customerId;
+
+    @JsonProperty("balance")
+    public long balance;
+
+    @JsonProperty("total_fee")
+    public long totalFee;
+
+    @JsonProperty("subscription_count")
+    public int subscriptionCount;
+}
@@ -1,5 +1,6 @@
 package org.nsu.fit.tm_backend.database.data;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class HealthCheckPojo {
@@ -12,4 +13,12 @@ public class HealthCheckPojo {
 
     @JsonProperty("db_status")
     public String dbStatus;
+
+    @JsonProperty("db_pool")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public ConnectionPoolStatsPojo dbPool;
+
+    @JsonProperty("account_tokens")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public AccountTokenStoreStatsPojo accountTokens;
 }
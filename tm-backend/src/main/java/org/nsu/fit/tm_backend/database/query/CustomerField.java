@@ -0,0 +1,39 @@
+package org.nsu.fit.tm_backend.database.query;
+
+/**
+ * Fields of CUSTOMER that can be used for sorting and projection.
+ * {@code name} matches the JSON property of {@link org.nsu.fit.tm_backend.database.data.CustomerPojo}.
+ */
+public enum CustomerField {
+    ID("id", "id"),
+    FIRST_NAME("first_name", "first_name"),
+    LAST_NAME("last_name", "last_name"),
+    LOGIN("login", "login"),
+    PASS("password", "pass"),
+    BALANCE("balance", "balance");
+
+    private final String name;
+    private final String column;
+
+    CustomerField(String name, String column) {
+        this.name = name;
+        this.column = column;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public static CustomerField fromName(String name) {
+        for (CustomerField field : values()) {
+            if (field.name.equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown customer field '" + name + "'.");
+    }
+}
@@ -0,0 +1,116 @@
+package org.nsu.fit.tm_backend.database.query;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Filtering, sorting and projection of customers. Every condition is translated into
+ * the WHERE/ORDER BY clauses of a single SQL query, unset conditions are ignored.
+ */
+public class CustomerQuery {
+    private UUID id;
+    private String login;
+    private String firstName;
+    private String lastName;
+    private Integer minBalance;
+    private Integer maxBalance;
+
+    private CustomerField sortField;
+    private boolean sortDescending;
+
+    private Set<CustomerField> fields = EnumSet.allOf(CustomerField.class);
+
+    private Integer limit;
+
+    public CustomerQuery id(UUID id) {
+        this.id = id;
+        return this;
+    }
+
+    public CustomerQuery login(String login) {
+        this.login = login;
+        return this;
+    }
+
+    public CustomerQuery firstName(String firstName) {
+        this.firstName = firstName;
+        return this;
+    }
+
+    public CustomerQuery lastName(String lastName) {
+        this.lastName = lastName;
+        return this;
+    }
+
+    public CustomerQuery minBalance(Integer minBalance) {
+        this.minBalance = minBalance;
+        return this;
+    }
+
+    public CustomerQuery maxBalance(Integer maxBalance) {
+        this.maxBalance = maxBalance;
+        return this;
+    }
+
+    public CustomerQuery sortBy(CustomerField sortField, boolean descending) {
+        this.sortField = sortField;
+        this.sortDescending = descending;
+        return this;
+    }
+
+    /**
+     * Restricts the columns that are read from the database. The id is always read.
+     */
+    public CustomerQuery fields(Set<CustomerField> fields) {
+        this.fields = EnumSet.of(CustomerField.ID);
+        this.fields.addAll(fields);
+        return this;
+    }
+
+    public CustomerQuery limit(Integer limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public Integer getMinBalance() {
+        return minBalance;
+    }
+
+    public Integer getMaxBalance() {
+        return maxBalance;
+    }
+
+    public CustomerField getSortField() {
+        return sortField;
+    }
+
+    public boolean isSortDescending() {
+        return sortDescending;
+    }
+
+    public Set<CustomerField> getFields() {
+        return Collections.unmodifiableSet(fields);
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+}
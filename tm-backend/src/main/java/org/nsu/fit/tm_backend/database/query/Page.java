@@ -0,0 +1,27 @@
+package org.nsu.fit.tm_backend.database.query;
+
+import java.util.List;
+
+/**
+ * One page of a keyset pagination.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Cursor of the next page or null if this page is the last one.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,32 @@
+package org.nsu.fit.tm_backend.database.query;
+
+/**
+ * Request for one page of a keyset (cursor-based) pagination.
+ */
+public class PageRequest {
+    public static final int MAX_LIMIT = 1000;
+
+    private final int limit;
+    private final String after;
+
+    /**
+     * @param limit max number of items on the page, from 1 to {@link #MAX_LIMIT}
+     * @param after opaque cursor returned as {@link Page#getNextCursor()} of the previous page, null for the first page
+     */
+    public PageRequest(int limit, String after) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Parameter 'limit' should be between 1 and " + MAX_LIMIT + ".");
+        }
+
+        this.limit = limit;
+        this.after = after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+}
@@ -2,18 +2,57 @@ package org.nsu.fit.tm_backend.manager;
 
 import org.slf4j.Logger;
 import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.RowHandler;
 import org.nsu.fit.tm_backend.database.data.ContactPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerImportReportPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerImportResultPojo;
 import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
 import org.nsu.fit.tm_backend.database.data.TopUpBalancePojo;
+import org.nsu.fit.tm_backend.database.query.CustomerQuery;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
 import org.nsu.fit.tm_backend.manager.auth.data.AuthenticatedUserDetails;
 import org.nsu.fit.tm_backend.shared.Globals;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 public class CustomerManager extends ParentManager {
+    // Индекс login -> id customer'а, чтобы при аутентификации читать одну строку по первичному ключу.
+    // Заполняется при создании и поиске customer'ов, очищается при удалении.
+    private final ConcurrentMap<String, UUID> loginToId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, String> idToLogin = new ConcurrentHashMap<>();
+
+    // Размер пачки при импорте: одна транзакция и один batch INSERT на пачку.
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    // Вызывается после удаления customer'а, например, чтобы сбросить кеш аутентификации.
+    private volatile Consumer<UUID> customerDeletedListener = id -> { };
+
+    private final CustomerSummaryManager customerSummaryManager;
+
     public CustomerManager(IDBService dbService, Logger flowLog) {
+        this(dbService, flowLog, new CustomerSummaryManager(dbService, flowLog));
+    }
+
+    public CustomerManager(IDBService dbService, Logger flowLog, CustomerSummaryManager customerSummaryManager) {
         super(dbService, flowLog);
+        this.customerSummaryManager = customerSummaryManager;
+    }
+
+    public void setCustomerDeletedListener(Consumer<UUID> customerDeletedListener) {
+        this.customerDeletedListener = customerDeletedListener;
     }
 
     /**
@@ -26,6 +65,95 @@ public class CustomerManager extends ParentManager {
      * balance - должно быть равно 0 перед отправкой базу данных.
      */
     public CustomerPojo createCustomer(CustomerPojo customer) {
+        validateCustomer(customer);
+
+        CustomerPojo result = dbService.createCustomer(customer);
+        indexLogin(result);
+
+        return result;
+    }
+
+    /**
+     * Метод создает customer'ов из потока входных данных пачками по IMPORT_BATCH_SIZE штук,
+     * каждая пачка пишется в базу одной транзакцией. Каждая строка проверяется так же, как в createCustomer.
+     * Итератор бросает IllegalArgumentException на строке, которую не удалось разобрать, и
+     * UncheckedIOException, если дальше поток читать нельзя: тогда импорт останавливается на этой строке.
+     * Возвращает отчет с результатом по каждой строке.
+     */
+    public CustomerImportReportPojo importCustomers(Iterator<CustomerPojo> customers) {
+        CustomerImportReportPojo report = new CustomerImportReportPojo();
+        Set<String> logins = new HashSet<>();
+
+        List<CustomerPojo> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        List<CustomerImportResultPojo> batchResults = new ArrayList<>(IMPORT_BATCH_SIZE);
+        for (int row = 1; ; row++) {
+            CustomerImportResultPojo result = new CustomerImportResultPojo();
+            result.row = row;
+
+            CustomerPojo customer;
+            try {
+                if (!customers.hasNext()) {
+                    break;
+                }
+                customer = customers.next();
+                result.login = customer != null ? customer.login : null;
+
+                validateCustomer(customer);
+                // Сравнение login в MySQL не учитывает регистр.
+                if (customer.login != null && !logins.add(customer.login.toLowerCase())) {
+                    throw new IllegalArgumentException("Login '" + customer.login + "' is repeated in the imported data.");
+                }
+            } catch (IllegalArgumentException ex) {
+                result.error = ex.getMessage();
+                report.rows.add(result);
+                continue;
+            } catch (UncheckedIOException ex) {
+                result.error = "Malformed input: " + ex.getCause().getMessage();
+                report.rows.add(result);
+                break;
+            }
+
+            report.rows.add(result);
+            batch.add(customer);
+            batchResults.add(result);
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                writeImportBatch(batch, batchResults);
+            }
+        }
+        writeImportBatch(batch, batchResults);
+
+        for (CustomerImportResultPojo result : report.rows) {
+            if (result.error == null) {
+                report.created++;
+            } else {
+                report.failed++;
+            }
+        }
+
+        log.debug("Imported {} customers, {} rows failed.", report.created, report.failed);
+        return report;
+    }
+
+    private void writeImportBatch(List<CustomerPojo> batch, List<CustomerImportResultPojo> batchResults) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<String> errors = dbService.createCustomers(new ArrayList<>(batch));
+        for (int i = 0; i < batch.size(); i++) {
+            if (errors.get(i) == null) {
+                batchResults.get(i).id = batch.get(i).id;
+                indexLogin(batch.get(i));
+            } else {
+                batchResults.get(i).error = errors.get(i);
+            }
+        }
+
+        batch.clear();
+        batchResults.clear();
+    }
+
+    private static void validateCustomer(CustomerPojo customer) {
         if (customer == null) {
             throw new IllegalArgumentException("Argument 'customer' is null.");
         }
@@ -44,8 +172,6 @@ public class CustomerManager extends ParentManager {
 
         // Лабораторная 2: добавить код который бы проверял, что нет customer'а c таким же login (email'ом).
         // Попробовать добавить другие ограничения, посмотреть как быстро растет кодовая база тестов.
-
-        return dbService.createCustomer(customer);
     }
 
     /**
@@ -55,15 +181,81 @@ public class CustomerManager extends ParentManager {
         return dbService.getCustomers();
     }
 
+    /**
+     * Метод возвращает список customer'ов, удовлетворяющих запросу; фильтрация и сортировка выполняются в базе данных.
+     */
+    public List<CustomerPojo> getCustomers(CustomerQuery query) {
+        return dbService.getCustomers(query);
+    }
+
+    /**
+     * Метод возвращает customer'ов с указанными id в порядке id, ненайденные пропускаются.
+     */
+    public List<CustomerPojo> getCustomers(Collection<UUID> ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("Argument 'ids' is null.");
+        }
+
+        if (ids.contains(null)) {
+            throw new IllegalArgumentException("Argument 'ids' should not contain null.");
+        }
+
+        return dbService.getCustomers(ids);
+    }
+
+    public Page<CustomerPojo> getCustomers(CustomerQuery query, PageRequest pageRequest) {
+        return dbService.getCustomers(query, pageRequest);
+    }
+
+    /**
+     * Метод выгружает всех customer'ов в handler построчно, не загружая их в память.
+     */
+    public void exportCustomers(RowHandler<CustomerPojo> handler) throws IOException {
+        dbService.exportCustomers(handler);
+    }
+
+    /**
+     * Метод возвращает суммарный баланс и суммарную стоимость подписок указанных customer'ов,
+     * посчитанные одним запросом в базе данных.
+     */
+    public CustomerStatisticPojo getCustomerStatistic(Collection<UUID> customerIds) {
+        return dbService.getCustomerStatistic(customerIds);
+    }
+
+    /**
+     * То же, что и getCustomerStatistic, но по инкрементально поддерживаемым агрегатам (CUSTOMER_SUMMARY).
+     */
+    public CustomerStatisticPojo getCustomerSummaryStatistic(Collection<UUID> customerIds) {
+        return customerSummaryManager.getStatistic(customerIds);
+    }
+
     public CustomerPojo getCustomer(UUID customerId) {
         return dbService.getCustomer(customerId);
     }
 
+    /**
+     * Ищет customer'а по login, возвращает null если такого нет.
+     */
     public CustomerPojo lookupCustomer(String login) {
-        return dbService.getCustomers().stream()
-                .filter(x -> x.login.equals(login))
-                .findFirst()
-                .orElse(null);
+        UUID id = loginToId.get(login);
+        if (id != null) {
+            List<CustomerPojo> customers = dbService.getCustomers(new CustomerQuery().id(id).limit(1));
+            if (!customers.isEmpty() && customers.get(0).login.equals(login)) {
+                return customers.get(0);
+            }
+
+            // Customer был удален (например, другим экземпляром сервиса).
+            unindexLogin(id);
+        }
+
+        // Сравнение login в MySQL не учитывает регистр, поэтому проверяем точное совпадение.
+        List<CustomerPojo> customers = dbService.getCustomers(new CustomerQuery().login(login).limit(1));
+        if (customers.isEmpty() || !customers.get(0).login.equals(login)) {
+            return null;
+        }
+
+        indexLogin(customers.get(0));
+        return customers.get(0);
     }
 
     public ContactPojo me(AuthenticatedUserDetails authenticatedUserDetails) {
@@ -82,19 +274,36 @@ public class CustomerManager extends ParentManager {
     }
 
     public void deleteCustomer(UUID id) {
-        dbService.deleteCustomer(id);
+        customerSummaryManager.update(id, () -> {
+            dbService.deleteCustomer(id);
+            return null;
+        });
+        unindexLogin(id);
+        customerDeletedListener.accept(id);
     }
 
     /**
      * Метод добавляет к текущему баласу переданное значение, которое должно быть строго больше нуля.
      */
     public CustomerPojo topUpBalance(TopUpBalancePojo topUpBalancePojo) {
-        CustomerPojo customerPojo = dbService.getCustomer(topUpBalancePojo.customerId);
+        return customerSummaryManager.update(
+                topUpBalancePojo.customerId,
+                () -> dbService.addCustomerBalance(topUpBalancePojo.customerId, topUpBalancePojo.money));
+    }
 
-        customerPojo.balance += topUpBalancePojo.money;
+    private void indexLogin(CustomerPojo customer) {
+        if (customer == null || customer.id == null || customer.login == null) {
+            return;
+        }
 
-        dbService.editCustomer(customerPojo);
+        loginToId.put(customer.login, customer.id);
+        idToLogin.put(customer.id, customer.login);
+    }
 
-        return customerPojo;
+    private void unindexLogin(UUID id) {
+        String login = idToLogin.remove(id);
+        if (login != null) {
+            loginToId.remove(login, id);
+        }
     }
 }
@@ -0,0 +1,147 @@
+package org.nsu.fit.tm_backend.manager;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerSummaryPojo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Агрегаты по customer'ам (баланс, сумма стоимости подписок, количество подписок).
+ *
+ * Агрегаты поддерживаются инкрементально в таблице CUSTOMER_SUMMARY в тех же транзакциях, что и
+ * изменения CUSTOMER/SUBSCRIPTION, а здесь кешируются в памяти. Все изменения customer'а должны
+ * выполняться через {@link #update(UUID, Supplier)}, которое сбрасывает его запись в кеше.
+ */
+public class CustomerSummaryManager extends ParentManager {
+    // Максимальное количество id в одном IN (...) запросе.
+    private static final int LOAD_PARTITION_SIZE = 1000;
+
+    // Больше записей не кешируем, статистика по остальным customer'ам читается из базы данных.
+    private static final int MAX_CACHED_SUMMARIES = 100_000;
+
+    private static final int STRIPES = 64;
+
+    private final ConcurrentMap<UUID, CustomerSummaryPojo> summaries = new ConcurrentHashMap<>();
+
+    // Счетчики начатых и завершенных изменений по полосам id. Загруженная из базы запись попадает в кеш,
+    // только если во время загрузки по ее полосе не было изменений, иначе она могла устареть.
+    private final AtomicLongArray startedUpdates = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray finishedUpdates = new AtomicLongArray(STRIPES);
+
+    public CustomerSummaryManager(IDBService dbService, Logger flowLog) {
+        super(dbService, flowLog);
+    }
+
+    /**
+     * Выполняет изменение данных customer'а и сбрасывает его агрегаты в кеше.
+     */
+    public <T> T update(UUID customerId, Supplier<T> write) {
+        int stripe = stripe(customerId);
+
+        startedUpdates.incrementAndGet(stripe);
+        try {
+            return write.get();
+        } finally {
+            summaries.remove(customerId);
+            finishedUpdates.incrementAndGet(stripe);
+        }
+    }
+
+    /**
+     * Выполняет изменение, которое может затронуть агрегаты любых customer'ов (например, удаление плана),
+     * и сбрасывает весь кеш.
+     */
+    public <T> T updateAll(Supplier<T> write) {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            startedUpdates.incrementAndGet(stripe);
+        }
+        try {
+            return write.get();
+        } finally {
+            summaries.clear();
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                finishedUpdates.incrementAndGet(stripe);
+            }
+        }
+    }
+
+    /**
+     * Возвращает суммарный баланс и стоимость подписок указанных customer'ов, каждый customer учитывается один раз.
+     */
+    public CustomerStatisticPojo getStatistic(Collection<UUID> customerIds) {
+        Set<UUID> distinctIds = new LinkedHashSet<>(customerIds);
+
+        CustomerStatisticPojo result = new CustomerStatisticPojo();
+        List<UUID> missingIds = new ArrayList<>();
+        for (UUID customerId : distinctIds) {
+            CustomerSummaryPojo summary = summaries.get(customerId);
+            if (summary == null) {
+                missingIds.add(customerId);
+            } else {
+                add(result, summary);
+            }
+        }
+
+        for (int from = 0; from < missingIds.size(); from += LOAD_PARTITION_SIZE) {
+            for (CustomerSummaryPojo summary : load(missingIds.subList(from, Math.min(from + LOAD_PARTITION_SIZE, missingIds.size())))) {
+                add(result, summary);
+            }
+        }
+
+        return result;
+    }
+
+    private List<CustomerSummaryPojo> load(List<UUID> customerIds) {
+        // Запоминаем счетчики до чтения; полоса, по которой идет изменение, сразу считается нестабильной.
+        Map<UUID, Long> startedBefore = new HashMap<>();
+        for (UUID customerId : customerIds) {
+            int stripe = stripe(customerId);
+            long started = startedUpdates.get(stripe);
+            if (started == finishedUpdates.get(stripe)) {
+                startedBefore.put(customerId, started);
+            }
+        }
+
+        List<CustomerSummaryPojo> loaded = dbService.getCustomerSummaries(customerIds);
+
+        for (CustomerSummaryPojo summary : loaded) {
+            Long started = startedBefore.get(summary.customerId);
+            if (started == null || summaries.size() >= MAX_CACHED_SUMMARIES) {
+                continue;
+            }
+
+            // Проверка и запись атомарны относительно summaries.remove в update.
+            summaries.compute(summary.customerId, (id, current) -> {
+                if (current != null) {
+                    return current;
+                }
+                return startedUpdates.get(stripe(id)) == started ? summary : null;
+            });
+        }
+
+        return loaded;
+    }
+
+    private static void add(CustomerStatisticPojo statistic, CustomerSummaryPojo summary) {
+        statistic.customerCount++;
+        statistic.overallBalance += summary.balance;
+        statistic.overallFee += summary.totalFee;
+    }
+
+    private static int stripe(UUID customerId) {
+        return (customerId.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+}
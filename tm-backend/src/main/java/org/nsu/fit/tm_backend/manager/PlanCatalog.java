@@ -0,0 +1,152 @@
+package org.nsu.fit.tm_backend.manager;
+
+import org.nsu.fit.tm_backend.database.data.PlanPojo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Неизменяемый снимок всех планов.
+ * Каждое изменение создает новый снимок со следующей версией, поэтому читать его можно без блокировок.
+ * Объекты PlanPojo внутри снимка общие для всех читателей и не должны изменяться.
+ *
+ * Каждому плану назначается плотный целочисленный индекс, который не меняется между снимками,
+ * так что множество планов можно хранить в виде BitSet.
+ */
+public final class PlanCatalog {
+    private final long version;
+    private final List<PlanPojo> plans;
+    private final Map<UUID, PlanPojo> plansById;
+
+    // Индекс -> план, для удаленных планов null. Индексы не переиспользуются.
+    private final List<PlanPojo> plansByIndex;
+    private final Map<UUID, Integer> indexById;
+    private final BitSet planBits;
+
+    private PlanCatalog(long version, List<PlanPojo> plansByIndex, Map<UUID, Integer> indexById) {
+        this.version = version;
+        this.plansByIndex = Collections.unmodifiableList(plansByIndex);
+        this.indexById = Collections.unmodifiableMap(indexById);
+
+        Map<UUID, PlanPojo> plansById = new LinkedHashMap<>();
+        BitSet planBits = new BitSet(plansByIndex.size());
+        for (int i = 0; i < plansByIndex.size(); i++) {
+            PlanPojo plan = plansByIndex.get(i);
+            if (plan != null) {
+                plansById.put(plan.id, plan);
+                planBits.set(i);
+            }
+        }
+
+        this.plansById = Collections.unmodifiableMap(plansById);
+        this.plans = Collections.unmodifiableList(new ArrayList<>(plansById.values()));
+        this.planBits = planBits;
+    }
+
+    static PlanCatalog of(long version, List<PlanPojo> plans) {
+        return empty(version).reload(version, plans);
+    }
+
+    private static PlanCatalog empty(long version) {
+        return new PlanCatalog(version, new ArrayList<>(), new HashMap<>());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<PlanPojo> getPlans() {
+        return plans;
+    }
+
+    public Map<UUID, PlanPojo> getPlansById() {
+        return plansById;
+    }
+
+    public PlanPojo getPlan(UUID id) {
+        return plansById.get(id);
+    }
+
+    /**
+     * Возвращает индекс плана или -1, если такого плана в снимке нет.
+     */
+    public int getIndex(UUID id) {
+        Integer index = indexById.get(id);
+        return index == null || plansByIndex.get(index) == null ? -1 : index;
+    }
+
+    /**
+     * Возвращает планы, индексы которых не входят в excluded, в порядке индексов.
+     */
+    public List<PlanPojo> getPlansExcept(BitSet excluded) {
+        BitSet available = (BitSet)planBits.clone();
+        available.andNot(excluded);
+
+        List<PlanPojo> result = new ArrayList<>(available.cardinality());
+        for (int i = available.nextSetBit(0); i >= 0; i = available.nextSetBit(i + 1)) {
+            result.add(plansByIndex.get(i));
+        }
+
+        return result;
+    }
+
+    PlanCatalog withPlan(PlanPojo plan) {
+        List<PlanPojo> plansByIndex = new ArrayList<>(this.plansByIndex);
+        Map<UUID, Integer> indexById = new HashMap<>(this.indexById);
+        put(plansByIndex, indexById, plan);
+
+        return new PlanCatalog(version + 1, plansByIndex, indexById);
+    }
+
+    PlanCatalog withoutPlan(UUID id) {
+        Integer index = indexById.get(id);
+        if (index == null) {
+            return new PlanCatalog(version + 1, new ArrayList<>(plansByIndex), new HashMap<>(indexById));
+        }
+
+        List<PlanPojo> plansByIndex = new ArrayList<>(this.plansByIndex);
+        plansByIndex.set(index, null);
+
+        return new PlanCatalog(version + 1, plansByIndex, new HashMap<>(indexById));
+    }
+
+    /**
+     * Создает снимок с указанным набором планов, сохраняя индексы уже известных планов.
+     */
+    PlanCatalog reload(long version, List<PlanPojo> plans) {
+        List<PlanPojo> plansByIndex = new ArrayList<>(Collections.nCopies(this.plansByIndex.size(), (PlanPojo)null));
+        Map<UUID, Integer> indexById = new HashMap<>(this.indexById);
+        for (PlanPojo plan : plans) {
+            put(plansByIndex, indexById, plan);
+        }
+
+        return new PlanCatalog(version, plansByIndex, indexById);
+    }
+
+    private static void put(List<PlanPojo> plansByIndex, Map<UUID, Integer> indexById, PlanPojo plan) {
+        Integer index = indexById.get(plan.id);
+        if (index == null) {
+            indexById.put(plan.id, plansByIndex.size());
+            plansByIndex.add(copy(plan));
+        } else {
+            plansByIndex.set(index, copy(plan));
+        }
+    }
+
+    // Копия защищает снимок от изменения объекта, который вернули вызывающему коду.
+    private static PlanPojo copy(PlanPojo plan) {
+        PlanPojo result = new PlanPojo();
+        result.id = plan.id;
+        result.name = plan.name;
+        result.details = plan.details;
+        result.fee = plan.fee;
+
+        return result;
+    }
+}
@@ -3,15 +3,51 @@ package org.nsu.fit.tm_backend.manager;
 import org.slf4j.Logger;
 import org.nsu.fit.tm_backend.database.IDBService;
 import org.nsu.fit.tm_backend.database.data.PlanPojo;
+import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
+import org.nsu.fit.tm_backend.shared.ExpiringCache;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PlanManager extends ParentManager {
+    // Текущий снимок планов; null пока планы ни разу не загружались.
+    // Читатели берут снимок без блокировок, изменения выполняются под монитором PlanManager.
+    private final AtomicReference<PlanCatalog> catalog = new AtomicReference<>();
+
+    // customerId -> индексы планов (см. PlanCatalog.getIndex), на которые customer подписан.
+    // BitSet'ы не изменяются после публикации, каждое изменение заменяет значение копией.
+    // Кеш обновляется только изменениями, прошедшими через этот экземпляр сервиса, т.е. рассчитан на один
+    // экземпляр на базу данных; подписки, измененные другим экземпляром, станут видны не позже чем через
+    // SUBSCRIBED_PLANS_TTL_MILLIS после загрузки. Размер ограничен, вытесненный customer просто перечитается.
+    private static final int SUBSCRIBED_PLANS_CACHE_SIZE = 10000;
+    private static final long SUBSCRIBED_PLANS_TTL_MILLIS = 5 * 60 * 1000;
+    private final ExpiringCache<UUID, SubscribedPlans> subscribedPlans = new ExpiringCache<>(SUBSCRIBED_PLANS_CACHE_SIZE);
+
+    // Поколения загрузок множеств планов: каждая загрузка из базы данных получает новое поколение,
+    // поэтому ETag меняется и тогда, когда подписки изменил другой экземпляр сервиса.
+    private final AtomicLong subscribedPlansGenerations = new AtomicLong();
+
+    // Версии подписок customer'ов для ETag'ов, по полосам: изменение подписок customer'а увеличивает счетчик
+    // его полосы. Соседи по полосе при этом тоже получают новую версию, это лишь лишний полный ответ.
+    private static final int SUBSCRIPTION_VERSION_STRIPES = 1024;
+    private final AtomicLongArray subscriptionVersions = new AtomicLongArray(SUBSCRIPTION_VERSION_STRIPES);
+
+    private final CustomerSummaryManager customerSummaryManager;
+
     public PlanManager(IDBService dbService, Logger flowLog) {
+        this(dbService, flowLog, new CustomerSummaryManager(dbService, flowLog));
+    }
+
+    public PlanManager(IDBService dbService, Logger flowLog, CustomerSummaryManager customerSummaryManager) {
         super(dbService, flowLog);
+        this.customerSummaryManager = customerSummaryManager;
     }
 
     /**
@@ -20,26 +56,157 @@ public class PlanManager extends ParentManager {
      * details - длина не больше 1024 символов и не меньше 1 включительно;
      * fee - больше либо равно 0 но меньше либо равно 5000.
      */
-    public PlanPojo createPlan(PlanPojo plan) {
-        return dbService.createPlan(plan);
+    public synchronized PlanPojo createPlan(PlanPojo plan) {
+        PlanPojo result = dbService.createPlan(plan);
+
+        PlanCatalog current = catalog.get();
+        if (current != null) {
+            catalog.set(current.withPlan(result));
+        }
+
+        return result;
+    }
+
+    public synchronized void deletePlan(UUID id) {
+        // Стоимость плана вычитается из total_fee всех его подписчиков.
+        customerSummaryManager.updateAll(() -> {
+            dbService.deletePlan(id);
+            return null;
+        });
+
+        PlanCatalog current = catalog.get();
+        if (current != null) {
+            catalog.set(current.withoutPlan(id));
+        }
+    }
+
+    /**
+     * Возвращает текущий снимок планов, при первом обращении загружает его из базы данных.
+     */
+    public PlanCatalog getCatalog() {
+        PlanCatalog current = catalog.get();
+        if (current != null) {
+            return current;
+        }
+
+        return reloadCatalog();
     }
 
-    public void deletePlan(UUID id) {
-        dbService.deletePlan(id);
+    /**
+     * Перечитывает все планы из базы данных, например, если их изменил другой экземпляр сервиса.
+     */
+    public synchronized PlanCatalog reloadCatalog() {
+        PlanCatalog current = catalog.get();
+        long version = current == null ? 1 : current.getVersion() + 1;
+
+        PlanCatalog result = current == null
+                ? PlanCatalog.of(version, dbService.getPlans())
+                : current.reload(version, dbService.getPlans());
+        catalog.set(result);
+
+        // Подписки могли ссылаться на планы, которых не было в прошлом снимке.
+        subscribedPlans.clear();
+
+        log.debug(String.format("Plan catalog version %s was loaded, plans: %s.", version, result.getPlans().size()));
+
+        return result;
     }
 
     /**
      * Возвращает список планов доступных для покупки или список всех планов в случае если customerId = null.
      */
     public List<PlanPojo> getPlans(UUID customerId) {
-        List<UUID> usedPlanIds = customerId == null
-                ? Collections.emptyList()
-                : dbService.getSubscriptions(customerId).stream()
-                    .map(s -> s.planId)
-                    .collect(Collectors.toList());
-
-        return dbService.getPlans().stream()
-                .filter(plan -> !usedPlanIds.contains(plan.id))
-                .collect(Collectors.toList());
+        PlanCatalog current = getCatalog();
+        if (customerId == null) {
+            return new ArrayList<>(current.getPlans());
+        }
+
+        return current.getPlansExcept(getSubscribedPlans(customerId, current));
+    }
+
+    /**
+     * Вызывается после создания подписки (после коммита в базу данных), чтобы обновить множество планов customer'а.
+     */
+    public void onSubscriptionCreated(UUID customerId, UUID planId) {
+        updateSubscribedPlans(customerId, planId, true);
+        subscriptionVersions.incrementAndGet(versionStripe(customerId));
+    }
+
+    /**
+     * Вызывается после удаления подписки (после коммита в базу данных), чтобы обновить множество планов customer'а.
+     */
+    public void onSubscriptionDeleted(UUID customerId, UUID planId) {
+        updateSubscribedPlans(customerId, planId, false);
+        subscriptionVersions.incrementAndGet(versionStripe(customerId));
+    }
+
+    // Версия увеличивается только после этого метода: читатель берет версию до множества планов,
+    // и если бы версия менялась раньше, под новым ETag'ом мог бы закешироваться старый ответ.
+    private void updateSubscribedPlans(UUID customerId, UUID planId, boolean subscribed) {
+        int index = getCatalog().getIndex(planId);
+        if (index < 0) {
+            // План неизвестен снимку, множество будет перечитано из базы данных при следующем обращении.
+            subscribedPlans.remove(customerId);
+            return;
+        }
+
+        subscribedPlans.computeIfPresent(customerId, (id, plans) -> {
+            BitSet result = (BitSet)plans.plans.clone();
+            result.set(index, subscribed);
+            return new SubscribedPlans(result, plans.generation);
+        });
+    }
+
+    /**
+     * Возвращает версию подписок customer'а: она меняется после каждого onSubscriptionCreated/Deleted для него
+     * и после каждой загрузки его множества планов из базы данных (в том числе по истечении TTL).
+     * Вместе с версией каталога определяет ETag списков планов и подписок customer'а; читать ее нужно
+     * до чтения самих данных, тогда ETag никогда не окажется новее ответа.
+     */
+    public String getSubscriptionsVersion(UUID customerId) {
+        long version = subscriptionVersions.get(versionStripe(customerId));
+
+        // Множество еще не загружено или истекло: ответ будет построен по новой загрузке, поэтому
+        // версия уникальна и не совпадет ни с одним ETag'ом, выданным раньше.
+        SubscribedPlans plans = subscribedPlans.get(customerId);
+        long generation = plans != null ? plans.generation : subscribedPlansGenerations.incrementAndGet();
+
+        return version + "." + generation;
+    }
+
+    private static int versionStripe(UUID customerId) {
+        return (customerId.hashCode() & Integer.MAX_VALUE) % SUBSCRIPTION_VERSION_STRIPES;
+    }
+
+    private BitSet getSubscribedPlans(UUID customerId, PlanCatalog current) {
+        // Загрузка выполняется внутри computeIfAbsent: параллельные onSubscriptionCreated/Deleted
+        // для этого customer'а дождутся ее и применят свое изменение поверх.
+        return subscribedPlans.computeIfAbsent(customerId, id -> {
+            BitSet result = new BitSet();
+            for (SubscriptionPojo subscription : dbService.getSubscriptions(id)) {
+                int index = current.getIndex(subscription.planId);
+                if (index >= 0) {
+                    result.set(index);
+                }
+            }
+            return new SubscribedPlans(result, subscribedPlansGenerations.incrementAndGet());
+        }, System.currentTimeMillis() + SUBSCRIBED_PLANS_TTL_MILLIS).plans;
+    }
+
+    /**
+     * Возвращает страницу планов доступных для покупки или всех планов в случае если customerId = null.
+     */
+    public Page<PlanPojo> getPlans(UUID customerId, PageRequest pageRequest) {
+        return dbService.getPlans(customerId, pageRequest);
+    }
+
+    private static class SubscribedPlans {
+        private final BitSet plans;
+        private final long generation;
+
+        private SubscribedPlans(BitSet plans, long generation) {
+            this.plans = plans;
+            this.generation = generation;
+        }
     }
 }
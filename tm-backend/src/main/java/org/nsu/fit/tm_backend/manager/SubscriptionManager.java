@@ -2,17 +2,49 @@ package org.nsu.fit.tm_backend.manager;
 
 import org.slf4j.Logger;
 import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.RowHandler;
+import org.nsu.fit.tm_backend.database.data.CustomerPojo;
 import org.nsu.fit.tm_backend.database.data.PlanPojo;
 import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
+import org.nsu.fit.tm_backend.manager.exception.ConcurrentUpdateException;
+import org.nsu.fit.tm_backend.manager.exception.InsufficientBalanceException;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class SubscriptionManager extends ParentManager {
-    public SubscriptionManager(IDBService dbService, Logger flowLog) {
+    private static final int PURCHASE_MAX_ATTEMPTS = 5;
+    private static final long PURCHASE_BACKOFF_MILLIS = 10;
+
+    private final PlanManager planManager;
+    private final CustomerSummaryManager customerSummaryManager;
+    private final Sleeper sleeper;
+
+    public SubscriptionManager(
+            IDBService dbService,
+            Logger flowLog,
+            PlanManager planManager,
+            CustomerSummaryManager customerSummaryManager) {
+        this(dbService, flowLog, planManager, customerSummaryManager, Thread::sleep);
+    }
+
+    // Задержку между попытками подменяют тесты, чтобы не ждать реального backoff'а.
+    SubscriptionManager(
+            IDBService dbService,
+            Logger flowLog,
+            PlanManager planManager,
+            CustomerSummaryManager customerSummaryManager,
+            Sleeper sleeper) {
         super(dbService, flowLog);
+        this.planManager = planManager;
+        this.customerSummaryManager = customerSummaryManager;
+        this.sleeper = sleeper;
     }
 
     /**
@@ -21,37 +53,164 @@ public class SubscriptionManager extends ParentManager {
      * 2. Стоймость подписки не превышает текущего баланса кастомера и после покупки вычитается из его баласа.
      */
     public SubscriptionPojo createSubscription(SubscriptionPojo subscriptionPojo) {
-        return dbService.createSubscription(subscriptionPojo);
+        if (subscriptionPojo == null) {
+            throw new IllegalArgumentException("Argument 'subscription' is null.");
+        }
+
+        if (subscriptionPojo.customerId == null || subscriptionPojo.planId == null) {
+            throw new IllegalArgumentException("Fields 'subscription.customerId' and 'subscription.planId' should be set.");
+        }
+
+        SubscriptionPojo result = customerSummaryManager.update(
+                subscriptionPojo.customerId,
+                () -> purchase(subscriptionPojo));
+        planManager.onSubscriptionCreated(result.customerId, result.planId);
+
+        return result;
+    }
+
+    /**
+     * Покупка с оптимистичной блокировкой: читаем customer'а, проверяем баланс и пытаемся списать деньги
+     * при неизменной версии; при конфликте повторяем с экспоненциальной задержкой.
+     */
+    private SubscriptionPojo purchase(SubscriptionPojo subscriptionPojo) {
+        PlanPojo plan = planManager.getCatalog().getPlan(subscriptionPojo.planId);
+        if (plan == null) {
+            // План мог создать другой экземпляр сервиса.
+            plan = planManager.reloadCatalog().getPlan(subscriptionPojo.planId);
+        }
+        if (plan == null) {
+            throw new IllegalArgumentException("Plan with id '" + subscriptionPojo.planId + "' was not found.");
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            CustomerPojo customer = dbService.getCustomer(subscriptionPojo.customerId);
+            if (customer.balance < plan.fee) {
+                throw new InsufficientBalanceException("Customer's balance is not enough to buy the plan.");
+            }
+
+            SubscriptionPojo result = dbService.purchaseSubscription(subscriptionPojo, customer.version);
+            if (result != null) {
+                return result;
+            }
+
+            if (attempt == PURCHASE_MAX_ATTEMPTS) {
+                throw new ConcurrentUpdateException(String.format(
+                        "Subscription was not purchased after %s attempts because of concurrent updates.",
+                        attempt));
+            }
+
+            log.debug(String.format("Concurrent update of customer '%s', attempt %s.", subscriptionPojo.customerId, attempt));
+            backoff(attempt);
+        }
+    }
+
+    private void backoff(int attempt) {
+        long delay = PURCHASE_BACKOFF_MILLIS << (attempt - 1);
+        try {
+            sleeper.sleep(delay + ThreadLocalRandom.current().nextLong(delay));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while purchasing a subscription.", ex);
+        }
+    }
+
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
     }
 
     public void deleteSubscription(UUID subscriptionId) {
-        dbService.deleteSubscription(subscriptionId);
+        SubscriptionPojo subscription = dbService.getSubscription(subscriptionId);
+        if (subscription == null) {
+            dbService.deleteSubscription(subscriptionId);
+            return;
+        }
+
+        customerSummaryManager.update(subscription.customerId, () -> {
+            dbService.deleteSubscription(subscriptionId);
+            return null;
+        });
+
+        planManager.onSubscriptionDeleted(subscription.customerId, subscription.planId);
     }
 
     /**
      * Возвращает список подписок для указанного customer'а.
      */
     public List<SubscriptionPojo> getSubscriptions(UUID customerId) {
-        Map<UUID, PlanPojo> planIdToPlan = dbService.getPlans().stream()
-                .collect(Collectors.toMap(plan -> plan.id, plan -> plan));
+        return getSubscriptions(customerId, true);
+    }
+
+    /**
+     * Возвращает список подписок для указанного customer'а (или всех, если customerId = null)
+     * вместе с полями плана, details плана заполняется только если includePlanDetails = true.
+     */
+    public List<SubscriptionPojo> getSubscriptions(UUID customerId, boolean includePlanDetails) {
+        return dbService.getSubscriptionsWithPlans(customerId, includePlanDetails);
+    }
+
+    /**
+     * Возвращает подписки всех указанных customer'ов вместе с полями плана из каталога,
+     * details плана заполняется только если includePlanDetails = true.
+     */
+    public List<SubscriptionPojo> getSubscriptions(Collection<UUID> customerIds, boolean includePlanDetails) {
+        List<SubscriptionPojo> subscriptions = dbService.getSubscriptions(customerIds);
+
+        fillPlanFields(subscriptions);
+        if (!includePlanDetails) {
+            subscriptions.forEach(subscription -> subscription.planDetails = null);
+        }
+
+        return subscriptions;
+    }
+
+    /**
+     * Возвращает страницу подписок для указанного customer'а или всех подписок в случае если customerId = null,
+     * details плана заполняется только если includePlanDetails = true.
+     */
+    public Page<SubscriptionPojo> getSubscriptions(UUID customerId, PageRequest pageRequest, boolean includePlanDetails) {
+        Page<SubscriptionPojo> page = dbService.getSubscriptions(customerId, pageRequest);
 
-        List<SubscriptionPojo> subscriptions;
-        if (customerId == null) {
-            subscriptions = dbService.getSubscriptions();
-        } else {
-            subscriptions = dbService.getSubscriptions(customerId);
+        fillPlanFields(page.getItems());
+        if (!includePlanDetails) {
+            page.getItems().forEach(subscription -> subscription.planDetails = null);
         }
 
-        // Дозаполняем поля, типа planName, planDetails и planFee.
+        return page;
+    }
+
+    /**
+     * Выгружает подписки указанного customer'а (или всех, если customerId = null) в handler построчно,
+     * не загружая их в память.
+     */
+    public void exportSubscriptions(UUID customerId, RowHandler<SubscriptionPojo> handler) throws IOException {
+        Map<UUID, PlanPojo> planIdToPlan = getPlanIdToPlan();
+
+        dbService.exportSubscriptions(customerId, subscription -> {
+            fillPlanFields(subscription, planIdToPlan);
+            handler.handle(subscription);
+        });
+    }
+
+    private void fillPlanFields(List<SubscriptionPojo> subscriptions) {
+        Map<UUID, PlanPojo> planIdToPlan = getPlanIdToPlan();
+
         for (SubscriptionPojo subscription : subscriptions) {
-            PlanPojo plan = planIdToPlan.getOrDefault(subscription.planId, null);
-            if (plan != null) {
-                subscription.planName = plan.name;
-                subscription.planDetails = plan.details;
-                subscription.planFee = plan.fee;
-            }
+            fillPlanFields(subscription, planIdToPlan);
         }
+    }
 
-        return subscriptions;
+    private Map<UUID, PlanPojo> getPlanIdToPlan() {
+        return planManager.getCatalog().getPlansById();
+    }
+
+    // Дозаполняем поля, типа planName, planDetails и planFee.
+    private static void fillPlanFields(SubscriptionPojo subscription, Map<UUID, PlanPojo> planIdToPlan) {
+        PlanPojo plan = planIdToPlan.getOrDefault(subscription.planId, null);
+        if (plan != null) {
+            subscription.planName = plan.name;
+            subscription.planDetails = plan.details;
+            subscription.planFee = plan.fee;
+        }
     }
 }
@@ -1,7 +1,6 @@
 package org.nsu.fit.tm_backend.manager.auth;
 
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
 import org.nsu.fit.tm_backend.manager.auth.data.AuthenticationTokenDetails;
 import org.nsu.fit.tm_backend.shared.Globals;
 
@@ -25,7 +24,7 @@ class AuthenticationTokenIssuer {
                 .claim(Globals.AUTHENTICATION_JWT_CLAIM_NAMES_AUTHORITIES, authenticationTokenDetails.getAuthorities())
                 .claim(Globals.AUTHENTICATION_JWT_CLAIM_NAMES_REFRESH_COUNT, authenticationTokenDetails.getRefreshCount())
                 .claim(Globals.AUTHENTICATION_JWT_CLAIM_NAMES_REFRESH_LIMIT, authenticationTokenDetails.getRefreshLimit())
-                .signWith(SignatureAlgorithm.HS256, Globals.AUTHENTICATION_JWT_SECRET)
+                .signWith(AuthenticationTokenKey.SIGNATURE_ALGORITHM, AuthenticationTokenKey.SIGNING_KEY)
                 .compact();
     }
 }
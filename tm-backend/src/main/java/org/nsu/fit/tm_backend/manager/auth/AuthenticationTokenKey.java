@@ -0,0 +1,23 @@
+package org.nsu.fit.tm_backend.manager.auth;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import org.nsu.fit.tm_backend.shared.Globals;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+
+/**
+ * Key material for signing and verifying JWT tokens, built once.
+ */
+final class AuthenticationTokenKey {
+    static final SignatureAlgorithm SIGNATURE_ALGORITHM = SignatureAlgorithm.HS256;
+
+    // Как и signWith(SignatureAlgorithm, String), секрет трактуется как строка в base64.
+    static final Key SIGNING_KEY = new SecretKeySpec(
+            TextCodec.BASE64.decode(Globals.AUTHENTICATION_JWT_SECRET),
+            SIGNATURE_ALGORITHM.getJcaName());
+
+    private AuthenticationTokenKey() {
+    }
+}
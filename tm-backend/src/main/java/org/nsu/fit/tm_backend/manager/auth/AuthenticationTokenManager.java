@@ -13,6 +13,7 @@ import org.nsu.fit.tm_backend.manager.auth.exception.InvalidAuthenticationTokenE
 import org.nsu.fit.tm_backend.manager.auth.data.AuthenticatedUserDetails;
 import org.nsu.fit.tm_backend.manager.auth.data.AuthenticationTokenDetails;
 import org.nsu.fit.tm_backend.shared.Authority;
+import org.nsu.fit.tm_backend.shared.ExpiringCache;
 import org.nsu.fit.tm_backend.shared.Globals;
 
 import java.time.ZonedDateTime;
@@ -24,6 +25,12 @@ import java.util.UUID;
  * Лабораторная *: Исследуйте данный класс, подумайте какие потенциальные проблемы он содержит.
  */
 public class AuthenticationTokenManager extends ParentManager {
+    private final AuthenticationTokenIssuer tokenIssuer = new AuthenticationTokenIssuer();
+    private final AuthenticationTokenParser tokenParser = new AuthenticationTokenParser();
+
+    // Principal cache: login -> customer id, so that authenticated requests don't query the customer.
+    private final ExpiringCache<String, UUID> customerIds = new ExpiringCache<>(Globals.AUTHENTICATION_JWT_CACHE_SIZE);
+
     public AuthenticationTokenManager(IDBService dbService, Logger flowLog) {
         super(dbService, flowLog);
     }
@@ -70,9 +77,36 @@ public class AuthenticationTokenManager extends ParentManager {
             throw new InvalidAuthenticationTokenException("Invalid token...");
         }
 
-        CustomerPojo customerPojo = dbService.getCustomerByLogin(authenticationTokenDetails.getUserName());
+        UUID customerId = lookupCustomerId(authenticationTokenDetails.getUserName());
+
+        return new AuthenticatedUserDetails(customerId.toString(), authenticationTokenDetails.getUserName(), authenticationTokenDetails.getAuthorities());
+    }
+
+    /**
+     * Drop the cached principal of a deleted customer.
+     */
+    public void invalidateCustomer(UUID customerId) {
+        customerIds.removeIf(customerId::equals);
+    }
+
+    private UUID lookupCustomerId(String login) {
+        UUID customerId = customerIds.get(login);
+        if (customerId != null) {
+            return customerId;
+        }
+
+        CustomerPojo customerPojo;
+        try {
+            customerPojo = dbService.getCustomerByLogin(login);
+        } catch (IllegalArgumentException ex) {
+            // The customer was deleted after the token had been issued.
+            throw new InvalidAuthenticationTokenException("Invalid token...", ex);
+        }
+
+        // Токен не живет дольше AUTHENTICATION_JWT_VALID_FOR, поэтому и запись в кеше тоже.
+        customerIds.put(login, customerPojo.id, System.currentTimeMillis() + Globals.AUTHENTICATION_JWT_VALID_FOR * 1000);
 
-        return new AuthenticatedUserDetails(customerPojo.id.toString(), authenticationTokenDetails.getUserName(), authenticationTokenDetails.getAuthorities());
+        return customerPojo.id;
     }
 
     /**
@@ -92,14 +126,14 @@ public class AuthenticationTokenManager extends ParentManager {
                 0,
                 Globals.AUTHENTICATION_JWT_REFRESH_LIMIT);
 
-        return new AuthenticationTokenIssuer().issueToken(authenticationTokenDetails);
+        return tokenIssuer.issueToken(authenticationTokenDetails);
     }
 
     /**
      * Parse and validate the token.
      */
     public AuthenticationTokenDetails parseToken(String token) {
-        return new AuthenticationTokenParser().parseToken(token);
+        return tokenParser.parseToken(token);
     }
 
     /**
@@ -123,7 +157,7 @@ public class AuthenticationTokenManager extends ParentManager {
                 currentTokenDetails.getRefreshCount() + 1,
                 Globals.AUTHENTICATION_JWT_REFRESH_LIMIT);
 
-        return new AuthenticationTokenIssuer().issueToken(newTokenDetails);
+        return tokenIssuer.issueToken(newTokenDetails);
     }
 
     /**
@@ -4,6 +4,7 @@ import io.jsonwebtoken.*;
 import org.nsu.fit.tm_backend.manager.auth.exception.InvalidAuthenticationTokenException;
 import org.nsu.fit.tm_backend.manager.auth.data.AuthenticationTokenDetails;
 import org.nsu.fit.tm_backend.shared.Authority;
+import org.nsu.fit.tm_backend.shared.ExpiringCache;
 import org.nsu.fit.tm_backend.shared.Globals;
 
 import javax.validation.constraints.NotNull;
@@ -16,17 +17,45 @@ import java.util.stream.Collectors;
 
 /**
  * Component which provides operations for parsing JWT tokens.
+ *
+ * Verified tokens are cached until they expire, so repeated requests with the same token
+ * don't verify the signature again.
  */
 class AuthenticationTokenParser {
+    // The parser is configured once and only read afterwards, so it is shared between threads.
+    private final JwtParser jwtParser = Jwts.parser()
+            .setSigningKey(AuthenticationTokenKey.SIGNING_KEY)
+            .requireAudience(Globals.AUTHENTICATION_JWT_AUDIENCE)
+            .setAllowedClockSkewSeconds(Globals.AUTHENTICATION_JWT_CLOCK_SKEW);
+
+    private final ExpiringCache<String, AuthenticationTokenDetails> verifiedTokens
+            = new ExpiringCache<>(Globals.AUTHENTICATION_JWT_CACHE_SIZE);
+
     /**
      * Parse a JWT token.
      */
     public AuthenticationTokenDetails parseToken(String token) {
+        AuthenticationTokenDetails cached = verifiedTokens.get(token);
+        if (cached != null) {
+            return cached;
+        }
+
+        AuthenticationTokenDetails authenticationTokenDetails = verifyToken(token);
+
+        // The parser accepts the token until expiration + clock skew, the cache does the same.
+        long expiresAt = authenticationTokenDetails.getExpirationDate().toInstant().toEpochMilli()
+                + Globals.AUTHENTICATION_JWT_CLOCK_SKEW * 1000;
+        verifiedTokens.put(token, authenticationTokenDetails, expiresAt);
+
+        return authenticationTokenDetails;
+    }
+
+    /**
+     * Verify the signature and the claims of a JWT token.
+     */
+    private AuthenticationTokenDetails verifyToken(String token) {
         try {
-            Claims claims = Jwts.parser()
-                    .setSigningKey(Globals.AUTHENTICATION_JWT_SECRET)
-                    .requireAudience(Globals.AUTHENTICATION_JWT_AUDIENCE)
-                    .setAllowedClockSkewSeconds(Globals.AUTHENTICATION_JWT_CLOCK_SKEW)
+            Claims claims = jwtParser
                     .parseClaimsJws(token)
                     .getBody();
 
@@ -0,0 +1,13 @@
+package org.nsu.fit.tm_backend.manager.exception;
+
+public class ConcurrentUpdateException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ConcurrentUpdateException(String message) {
+        super(message);
+    }
+
+    public ConcurrentUpdateException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
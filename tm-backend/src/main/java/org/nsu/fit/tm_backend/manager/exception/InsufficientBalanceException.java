@@ -0,0 +1,13 @@
+package org.nsu.fit.tm_backend.manager.exception;
+
+public class InsufficientBalanceException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public InsufficientBalanceException(String message) {
+        super(message);
+    }
+
+    public InsufficientBalanceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
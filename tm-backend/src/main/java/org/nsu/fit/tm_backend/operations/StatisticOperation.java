@@ -1,22 +1,51 @@
 package org.nsu.fit.tm_backend.operations;
 
 import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
 import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
 import org.nsu.fit.tm_backend.manager.CustomerManager;
 import org.nsu.fit.tm_backend.manager.SubscriptionManager;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class StatisticOperation implements Operation<StatisticOperation.StatisticOperationResult> {
+    // Максимальное количество id в одном IN (...) запросе.
+    static final int PARTITION_SIZE = 1000;
+
+    // Партиции считаются параллельно, каждая занимает одно соединение из пула.
+    private static final ForkJoinPool PARTITION_POOL = new ForkJoinPool(4);
+
+    public enum ExecutionMode {
+        // Два запроса на каждого customer'а.
+        PER_CUSTOMER,
+        // Агрегирующий SQL запрос на каждую партицию id, партиции считаются параллельно.
+        SET_BASED,
+        // Поиск инкрементально поддерживаемых агрегатов по каждому id, без join'ов.
+        SUMMARY
+    }
+
     private final CustomerManager customerManager;
     private final SubscriptionManager subscriptionManager;
     private final List<UUID> customerIds;
+    private final ExecutionMode executionMode;
 
     public StatisticOperation(
             CustomerManager customerManager,
             SubscriptionManager subscriptionManager,
             List<UUID> customerIds) {
+        this(customerManager, subscriptionManager, customerIds, ExecutionMode.SUMMARY);
+    }
+
+    public StatisticOperation(
+            CustomerManager customerManager,
+            SubscriptionManager subscriptionManager,
+            List<UUID> customerIds,
+            ExecutionMode executionMode) {
         if (customerManager == null) {
             throw new IllegalArgumentException("customerManager");
         }
@@ -29,9 +58,14 @@ public class StatisticOperation implements Operation<StatisticOperation.Statisti
             throw new IllegalArgumentException("customerIds");
         }
 
+        if (executionMode == null) {
+            throw new IllegalArgumentException("executionMode");
+        }
+
         this.customerManager = customerManager;
         this.subscriptionManager = subscriptionManager;
         this.customerIds = customerIds;
+        this.executionMode = executionMode;
     }
 
     @Override
@@ -39,17 +73,102 @@ public class StatisticOperation implements Operation<StatisticOperation.Statisti
         StatisticOperationResult result = new StatisticOperationResult();
 
         result.customerIds = customerIds;
-        for (UUID customerId : customerIds) {
+        switch (executionMode) {
+            case PER_CUSTOMER:
+                executePerCustomer(result);
+                break;
+            case SET_BASED:
+                executeSetBased(result);
+                break;
+            default:
+                executeSummary(result);
+        }
+
+        return result;
+    }
+
+    private void executePerCustomer(StatisticOperationResult result) {
+        for (UUID customerId : distinctCustomerIds()) {
             CustomerPojo customer = customerManager.getCustomer(customerId);
             result.overallBalance += customer.balance;
 
-            List<SubscriptionPojo> subscriptions = subscriptionManager.getSubscriptions(customerId);
+            List<SubscriptionPojo> subscriptions = subscriptionManager.getSubscriptions(customerId, false);
             for (SubscriptionPojo subscription : subscriptions) {
-                result.overallFee += subscription.planFee;
+                if (subscription.planFee != null) {
+                    result.overallFee += subscription.planFee;
+                }
             }
         }
+    }
 
-        return result;
+    private void executeSetBased(StatisticOperationResult result) {
+        List<UUID> distinctIds = distinctCustomerIds();
+
+        PartitionTask task = new PartitionTask(distinctIds);
+        CustomerStatisticPojo statistic = distinctIds.size() <= PARTITION_SIZE
+                ? task.compute()
+                : PARTITION_POOL.invoke(task);
+
+        fillResult(result, statistic, distinctIds.size());
+    }
+
+    private void executeSummary(StatisticOperationResult result) {
+        List<UUID> distinctIds = distinctCustomerIds();
+
+        fillResult(result, customerManager.getCustomerSummaryStatistic(distinctIds), distinctIds.size());
+    }
+
+    // Во всех режимах каждый customer учитывается один раз, даже если его id передали несколько раз.
+    private List<UUID> distinctCustomerIds() {
+        return new ArrayList<>(new LinkedHashSet<>(customerIds));
+    }
+
+    private static void fillResult(StatisticOperationResult result, CustomerStatisticPojo statistic, int customerCount) {
+        if (statistic.customerCount != customerCount) {
+            throw new IllegalArgumentException(String.format(
+                    "%s of %s customers were not found.",
+                    customerCount - statistic.customerCount,
+                    customerCount));
+        }
+
+        result.overallBalance = statistic.overallBalance;
+        result.overallFee = statistic.overallFee;
+    }
+
+    /**
+     * Делит список id пополам, пока он не уместится в одну партицию, и складывает результаты.
+     */
+    private class PartitionTask extends RecursiveTask<CustomerStatisticPojo> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<UUID> ids;
+
+        private PartitionTask(List<UUID> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        protected CustomerStatisticPojo compute() {
+            if (ids.size() <= PARTITION_SIZE) {
+                return customerManager.getCustomerStatistic(ids);
+            }
+
+            // Граница кратна PARTITION_SIZE, чтобы партиции были полными.
+            int middle = (ids.size() / PARTITION_SIZE + 1) / 2 * PARTITION_SIZE;
+            PartitionTask left = new PartitionTask(ids.subList(0, middle));
+            PartitionTask right = new PartitionTask(ids.subList(middle, ids.size()));
+
+            left.fork();
+            CustomerStatisticPojo rightResult = right.compute();
+            CustomerStatisticPojo leftResult = left.join();
+
+            CustomerStatisticPojo result = new CustomerStatisticPojo();
+            result.customerCount = leftResult.customerCount + rightResult.customerCount;
+            result.overallBalance = leftResult.overallBalance + rightResult.overallBalance;
+            result.overallFee = leftResult.overallFee + rightResult.overallFee;
+
+            return result;
+        }
     }
 
     public static class StatisticOperationResult {
@@ -57,9 +176,9 @@ public class StatisticOperation implements Operation<StatisticOperation.Statisti
         private List<UUID> customerIds;
 
         // Их общий остаточный баланс.
-        public int overallBalance;
+        public long overallBalance;
 
         // Их общая сумма денег потраченных покупку различных планов.
-        public int overallFee;
+        public long overallFee;
     }
 }
@@ -58,7 +58,7 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
                     // you want the client to be able to send to the server,
                     // put it in this list. And remove the ones you don't want.
                     "X-Requested-With, Authorization, " +
-                            "Accept-Version, Content-MD5, CSRF-Token, Content-Type");
+                            "Accept-Version, Content-MD5, CSRF-Token, Content-Type, If-None-Match");
         }
 
         // Cross origin requests can be either simple requests
@@ -66,5 +66,6 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
         // to both type of requests. Only preflight requests
         // need the previously added headers.
         response.getHeaders().add("Access-Control-Allow-Origin", "*");
+        response.getHeaders().add("Access-Control-Expose-Headers", RestService.NEXT_CURSOR_HEADER + ", ETag");
     }
 }
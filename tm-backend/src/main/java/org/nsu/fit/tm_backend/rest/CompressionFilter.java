@@ -0,0 +1,166 @@
+package org.nsu.fit.tm_backend.rest;
+
+import org.nsu.fit.tm_backend.shared.Globals;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses response bodies with gzip or deflate if the client accepts it and the body is at least
+ * {@link Globals#RESPONSE_COMPRESSION_THRESHOLD} bytes long. Smaller bodies are sent as is: the first bytes
+ * are buffered until it is clear whether the threshold is reached, so streamed responses work too. A flush
+ * before the threshold is reached sends the body uncompressed, so streams that flush early are not held back.
+ *
+ * Responses that already have Content-Encoding (e.g. pre-compressed cached bodies) are not touched.
+ */
+@Provider
+public class CompressionFilter implements ContainerRequestFilter, WriterInterceptor {
+    private static final String ENCODING_PROPERTY = CompressionFilter.class.getName() + ".encoding";
+
+    private final int threshold;
+
+    public CompressionFilter() {
+        this(Globals.RESPONSE_COMPRESSION_THRESHOLD);
+    }
+
+    public CompressionFilter(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Method for ContainerRequestFilter: remembers the coding accepted by the client.
+     */
+    @Override
+    public void filter(ContainerRequestContext request) {
+        ContentEncoding encoding = ContentEncoding.negotiate(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null) {
+            request.setProperty(ENCODING_PROPERTY, encoding);
+        }
+    }
+
+    /**
+     * Method for WriterInterceptor.
+     */
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        MultivaluedMap<String, Object> headers = context.getHeaders();
+        if (headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+
+        addVary(headers);
+
+        ContentEncoding encoding = (ContentEncoding)context.getProperty(ENCODING_PROPERTY);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        ThresholdOutputStream outputStream = new ThresholdOutputStream(context.getOutputStream(), headers, encoding, threshold);
+        context.setOutputStream(outputStream);
+        try {
+            context.proceed();
+        } finally {
+            // Also releases the compressor if writing the body failed.
+            outputStream.close();
+        }
+    }
+
+    static void addVary(MultivaluedMap<String, Object> headers) {
+        if (!headers.containsKey(HttpHeaders.VARY)) {
+            headers.putSingle(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Buffers the body until it reaches the threshold, then sets Content-Encoding (nothing has been written
+     * to the response yet, so headers can still be changed) and switches to compressed output.
+     * If the body is flushed first, it goes out uncompressed from then on.
+     */
+    private static class ThresholdOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final MultivaluedMap<String, Object> headers;
+        private final ContentEncoding encoding;
+        private final int threshold;
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // The compressing stream or the target itself; null while the body is buffered.
+        private OutputStream output;
+        private boolean closed;
+
+        private ThresholdOutputStream(OutputStream target, MultivaluedMap<String, Object> headers, ContentEncoding encoding, int threshold) {
+            this.target = target;
+            this.headers = headers;
+            this.encoding = encoding;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (output != null) {
+                output.write(b, off, len);
+                return;
+            }
+
+            buffer.write(b, off, len);
+            if (buffer.size() >= threshold) {
+                headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding.getName());
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                Object entityTag = headers.getFirst(HttpHeaders.ETAG);
+                if (entityTag instanceof EntityTag) {
+                    headers.putSingle(HttpHeaders.ETAG, encoding.tag((EntityTag)entityTag));
+                }
+
+                output = encoding.compress(target);
+                buffer.writeTo(output);
+                buffer = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (output == null) {
+                // The caller wants the bytes sent now, so there is no waiting for the threshold.
+                output = target;
+                buffer.writeTo(target);
+                buffer = null;
+            }
+            output.flush();
+        }
+
+        /**
+         * Writes out what is left; the target stream stays open, it belongs to the container.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (output == null) {
+                buffer.writeTo(target);
+                target.flush();
+            } else if (output != target) {
+                output.close();
+            } else {
+                target.flush();
+            }
+        }
+    }
+}
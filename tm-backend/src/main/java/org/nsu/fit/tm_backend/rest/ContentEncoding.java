@@ -0,0 +1,140 @@
+package org.nsu.fit.tm_backend.rest;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings the responses can be compressed with, see {@link CompressionFilter}.
+ */
+enum ContentEncoding {
+    GZIP("gzip") {
+        @Override
+        OutputStream compress(OutputStream outputStream) throws IOException {
+            return new GZIPOutputStream(new NonClosingOutputStream(outputStream), BUFFER_SIZE, true);
+        }
+    },
+    // HTTP "deflate" is the zlib format, which is what DeflaterOutputStream writes by default.
+    DEFLATE("deflate") {
+        @Override
+        OutputStream compress(OutputStream outputStream) {
+            return new DeflaterOutputStream(new NonClosingOutputStream(outputStream), new Deflater(), BUFFER_SIZE, true) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // A Deflater passed to the constructor is not released by DeflaterOutputStream itself.
+                        def.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String name;
+
+    ContentEncoding(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Wraps the stream into a compressing one. Flushing the returned stream sync-flushes the compressor,
+     * so everything written so far can be decompressed on the other side. Closing it finishes
+     * the compressed data and releases the compressor, but leaves the given stream open.
+     */
+    abstract OutputStream compress(OutputStream outputStream) throws IOException;
+
+    /**
+     * ETag of the compressed representation: a compressed body differs from the original byte by byte,
+     * so it must not share a strong ETag with it.
+     */
+    EntityTag tag(EntityTag entityTag) {
+        return new EntityTag(entityTag.getValue() + "-" + name, entityTag.isWeak());
+    }
+
+    /**
+     * Removes the suffix added by {@link #tag} from the ETag value, if any.
+     */
+    static String untag(String entityTagValue) {
+        for (ContentEncoding encoding : values()) {
+            String suffix = "-" + encoding.name;
+            if (entityTagValue.endsWith(suffix)) {
+                return entityTagValue.substring(0, entityTagValue.length() - suffix.length());
+            }
+        }
+        return entityTagValue;
+    }
+
+    /**
+     * Chooses the coding by the Accept-Encoding header: the one with the highest quality, gzip on a tie.
+     * Returns null if the client accepts neither.
+     */
+    static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = parts.length > 1 ? parseQuality(parts[1]) : 1;
+
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equals("deflate")) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static double parseQuality(String parameter) {
+        String[] nameAndValue = parameter.split("=");
+        if (nameAndValue.length != 2 || !nameAndValue[0].trim().equalsIgnoreCase("q")) {
+            return 1;
+        }
+        try {
+            return Double.parseDouble(nameAndValue[1].trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -20,5 +20,6 @@ public class CustomApplication extends ResourceConfig {
         register(AuthenticationFilter.class);
         register(AuthorizationFilter.class);
         register(CORSFilter.class);
+        register(CompressionFilter.class);
     }
 }
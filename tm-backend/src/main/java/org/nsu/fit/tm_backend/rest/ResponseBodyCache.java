@@ -0,0 +1,74 @@
+package org.nsu.fit.tm_backend.rest;
+
+import org.nsu.fit.tm_backend.shared.Globals;
+import org.nsu.fit.tm_backend.shared.JsonMapper;
+import org.nsu.fit.tm_backend.shared.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Ready-to-send bodies of hot responses, already serialized and, if they reach
+ * {@link Globals#RESPONSE_COMPRESSION_THRESHOLD}, already compressed. A body is kept per
+ * (name, format, pretty printing, coding) and is valid while the version of the data it was built from
+ * stays the same.
+ */
+class ResponseBodyCache {
+    private final ConcurrentMap<String, Body> bodies = new ConcurrentHashMap<>();
+
+    Body get(String name, long version, WireFormat format, boolean prettyPrint, ContentEncoding encoding, Supplier<?> entity) {
+        String key = name + '|' + format + '|' + prettyPrint + '|' + (encoding == null ? "identity" : encoding.getName());
+
+        Body body = bodies.get(key);
+        if (body == null || body.version != version) {
+            // Параллельные промахи могут собрать тело дважды, это дешевле блокировки.
+            body = build(version, format, prettyPrint, encoding, entity.get());
+            bodies.put(key, body);
+        }
+        return body;
+    }
+
+    private static Body build(long version, WireFormat format, boolean prettyPrint, ContentEncoding encoding, Object entity) {
+        try {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            JsonMapper.write(entity, serialized, format, prettyPrint);
+            if (encoding == null || serialized.size() < Globals.RESPONSE_COMPRESSION_THRESHOLD) {
+                return new Body(version, serialized.toByteArray(), null);
+            }
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream outputStream = encoding.compress(compressed)) {
+                serialized.writeTo(outputStream);
+            }
+            return new Body(version, compressed.toByteArray(), encoding);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static class Body {
+        private final long version;
+        private final byte[] bytes;
+        // null if the bytes are not compressed.
+        private final ContentEncoding encoding;
+
+        private Body(long version, byte[] bytes, ContentEncoding encoding) {
+            this.version = version;
+            this.bytes = bytes;
+            this.encoding = encoding;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        ContentEncoding getEncoding() {
+            return encoding;
+        }
+    }
+}
@@ -3,18 +3,28 @@ package org.nsu.fit.tm_backend.rest;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.nsu.fit.tm_backend.MainFactory;
-import org.nsu.fit.tm_backend.database.DBService;
 import org.nsu.fit.tm_backend.database.data.ContactPojo;
 import org.nsu.fit.tm_backend.database.data.CredentialsPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerImportReportPojo;
 import org.nsu.fit.tm_backend.database.data.CustomerPojo;
 import org.nsu.fit.tm_backend.database.data.HealthCheckPojo;
 import org.nsu.fit.tm_backend.database.data.PlanPojo;
 import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
 import org.nsu.fit.tm_backend.database.data.TopUpBalancePojo;
+import org.nsu.fit.tm_backend.database.query.CustomerField;
+import org.nsu.fit.tm_backend.database.query.CustomerQuery;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
+import org.nsu.fit.tm_backend.manager.PlanCatalog;
+import org.nsu.fit.tm_backend.manager.PlanManager;
 import org.nsu.fit.tm_backend.manager.auth.data.AuthenticatedUserDetails;
+import org.nsu.fit.tm_backend.manager.exception.ConcurrentUpdateException;
+import org.nsu.fit.tm_backend.manager.exception.InsufficientBalanceException;
 import org.nsu.fit.tm_backend.shared.Authority;
+import org.nsu.fit.tm_backend.shared.CsvReader;
 import org.nsu.fit.tm_backend.shared.JsonMapper;
-import org.slf4j.LoggerFactory;
+import org.nsu.fit.tm_backend.shared.NdjsonWriter;
+import org.nsu.fit.tm_backend.shared.WireFormat;
 
 import javax.annotation.security.PermitAll;
 import javax.annotation.security.RolesAllowed;
@@ -27,293 +37,762 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Path("")
 public class RestService {
+    // Cursor of the next page for the paginated list requests (?limit=...&after=...).
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    // Newline-delimited JSON, used by the streaming export requests.
+    // An export is written on the DB executor (see async()) and holds its thread and a pooled connection
+    // until the whole stream is sent, so a slow client keeps both busy; exports share the executor's bound.
+    public static final String NDJSON = "application/x-ndjson";
+
+    // CSV with a header line, accepted by the import requests.
+    public static final String CSV = "text/csv";
+
+    // Binary JSON (Smile), negotiated by Accept/Content-Type for service-to-service calls; JSON stays the default.
+    public static final String SMILE = "application/x-jackson-smile";
+
+    // JSON responses are compact unless the request has ?pretty (or ?pretty=true).
+    @QueryParam("pretty")
+    private String pretty;
+
+    @Context
+    private HttpHeaders headers;
+
+    // Request headers read by the helpers, see requestHeaders().
+    private RequestHeaders requestHeaders;
+
+    // Requests that go to the database are served on the DB executor (see async()): while the database is slow,
+    // they wait there and don't take the container threads from /health_check, which doesn't wait for the pool.
+    // The one exception is AuthenticationFilter: on a principal cache miss it reads the customer on the container
+    // thread, once per login for the token lifetime.
+    // A request that waited in the queue longer than this, or didn't fit into it, is answered with 503.
+    private static final long ASYNC_TIMEOUT_SECONDS = 30;
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private static final String ENTITY_TAG_EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    // Serialized bodies of hot responses (the plan catalog), shared by all requests.
+    private static final ResponseBodyCache responseBodyCache = new ResponseBodyCache();
+
     @POST
     @Path("/authenticate")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @PermitAll
-    public Response authenticate(String credentialsDataJson) {
-        // convert json to object.
-        CredentialsPojo credentialsPojo = JsonMapper.fromJson(credentialsDataJson, CredentialsPojo.class);
+    public void authenticate(@Suspended AsyncResponse asyncResponse, InputStream credentialsData) {
+        async(asyncResponse, () -> {
+            // convert json to object.
+            CredentialsPojo credentialsPojo = readBody(credentialsData, CredentialsPojo.class);
 
-        return Response.ok().entity(JsonMapper.toJson(
-                MainFactory.getInstance().getAuthenticationTokenManager().authenticate(credentialsPojo),
-                true)).build();
+            return ok(MainFactory.getInstance().getAuthenticationTokenManager().authenticate(credentialsPojo)).build();
+        });
     }
 
     @GET
     @Path("/health_check")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @PermitAll
     public Response healthCheck() {
         HealthCheckPojo result = new HealthCheckPojo();
         try {
-            new DBService(LoggerFactory.getLogger(DBService.class));
+            result.dbPool = MainFactory.getInstance().getDBService().checkHealth();
+            result.accountTokens = MainFactory.getInstance().getDBService().getAccountTokenStore().getStats();
             result.dbStatus = "OK";
         } catch (Throwable ex) {
             result.dbStatus = ex.getMessage();
         }
-        return Response.ok().entity(JsonMapper.toJson(result, true)).build();
+        return ok(result).build();
     }
 
     @GET
     @Path("/me")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed({ Authority.ADMIN_ROLE, Authority.CUSTOMER_ROLE })
-    public Response me(@Context SecurityContext securityContext) {
-        try {
-            AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
-
-            ContactPojo contactPojo = MainFactory.getInstance()
-                    .getCustomerManager()
-                    .me(authenticatedUserDetails);
-
-            return Response.ok().entity(JsonMapper.toJson(contactPojo, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void me(@Suspended AsyncResponse asyncResponse, @Context SecurityContext securityContext) {
+        AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+
+        async(asyncResponse, () -> {
+            try {
+                ContactPojo contactPojo = MainFactory.getInstance()
+                        .getCustomerManager()
+                        .me(authenticatedUserDetails);
+
+                return ok(contactPojo).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     // Example request: ../customers?login='john_wick@example.com'
+    // Example request: ../customers?min_balance=100&sort=-balance&fields=login,balance
+    // Example request: ../customers?limit=100&after=<X-Next-Cursor header of the previous page>
+    // Example request: ../customers?ids=<id1>,<id2>,<id3>
     @GET
     @Path("/customers")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed({ Authority.ADMIN_ROLE, Authority.CUSTOMER_ROLE })
-    public Response getCustomers(@Context SecurityContext securityContext, @DefaultValue("") @QueryParam("login") String customerLogin) {
-        try {
-            AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
-
-            if (authenticatedUserDetails.isCustomer()) {
-                customerLogin = authenticatedUserDetails.getName();
+    public void getCustomers(
+            @Suspended AsyncResponse asyncResponse,
+            @Context SecurityContext securityContext,
+            @DefaultValue("") @QueryParam("login") String customerLogin,
+            @DefaultValue("") @QueryParam("first_name") String firstName,
+            @DefaultValue("") @QueryParam("last_name") String lastName,
+            @QueryParam("min_balance") Integer minBalance,
+            @QueryParam("max_balance") Integer maxBalance,
+            @DefaultValue("") @QueryParam("sort") String sort,
+            @DefaultValue("") @QueryParam("fields") String fields,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after,
+            @DefaultValue("") @QueryParam("ids") String ids) {
+        AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+
+        async(asyncResponse, () -> {
+            try {
+                if (!StringUtils.isBlank(ids)) {
+                    List<UUID> customerIds = parseIds(ids);
+                    if (authenticatedUserDetails.isCustomer()) {
+                        customerIds.retainAll(Collections.singleton(UUID.fromString(authenticatedUserDetails.getUserId())));
+                    }
+
+                    List<CustomerPojo> customers = MainFactory.getInstance()
+                            .getCustomerManager()
+                            .getCustomers(customerIds);
+
+                    return ok(customers).build();
+                }
+
+                String login = authenticatedUserDetails.isCustomer() ? authenticatedUserDetails.getName() : customerLogin;
+
+                CustomerQuery query = new CustomerQuery()
+                        .login(StringUtils.trimToNull(login))
+                        .firstName(StringUtils.trimToNull(firstName))
+                        .lastName(StringUtils.trimToNull(lastName))
+                        .minBalance(minBalance)
+                        .maxBalance(maxBalance);
+
+                if (!StringUtils.isBlank(sort)) {
+                    boolean descending = sort.startsWith("-");
+                    query.sortBy(CustomerField.fromName(descending ? sort.substring(1) : sort), descending);
+                }
+
+                if (!StringUtils.isBlank(fields)) {
+                    query.fields(Arrays.stream(fields.split(","))
+                            .map(String::trim)
+                            .map(CustomerField::fromName)
+                            .collect(Collectors.toSet()));
+                }
+
+                if (limit != null) {
+                    return pageResponse(MainFactory.getInstance()
+                            .getCustomerManager()
+                            .getCustomers(query, new PageRequest(limit, after)));
+                }
+
+                List<CustomerPojo> customers = MainFactory.getInstance()
+                        .getCustomerManager()
+                        .getCustomers(query);
+
+                return ok(customers).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
             }
+        });
+    }
 
-            String login = customerLogin;
+    // Example request: ../customers/_mget with a JSON array of customer ids in the body
+    @POST
+    @Path("/customers/_mget")
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
+    @RolesAllowed(Authority.ADMIN_ROLE)
+    public void getCustomersByIds(@Suspended AsyncResponse asyncResponse, InputStream idsData) {
+        async(asyncResponse, () -> {
+            try {
+                UUID[] ids = readBody(idsData, UUID[].class);
+
+                List<CustomerPojo> customers = MainFactory.getInstance()
+                        .getCustomerManager()
+                        .getCustomers(ids == null ? null : Arrays.asList(ids));
+
+                return ok(customers).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
+    }
 
-            List<CustomerPojo> customers = MainFactory.getInstance()
-                    .getCustomerManager()
-                    .getCustomers().stream()
-                    .filter(x -> login.isEmpty() || x.login.equals(login))
-                    .collect(Collectors.toList());
+    // Example request: ../customers/export
+    @GET
+    @Path("/customers/export")
+    @Produces(NDJSON)
+    @RolesAllowed(Authority.ADMIN_ROLE)
+    public void exportCustomers(@Suspended AsyncResponse asyncResponse) {
+        async(asyncResponse, () -> {
+            StreamingOutput output = outputStream -> {
+                try (NdjsonWriter writer = JsonMapper.toNdjson(outputStream)) {
+                    MainFactory.getInstance().getCustomerManager().exportCustomers(writer::write);
+                }
+            };
+
+            return Response.ok(output, NDJSON).build();
+        });
+    }
 
-            return Response.ok().entity(JsonMapper.toJson(customers, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    // Example request: ../customers/import with a JSON array of customers in the body,
+    // or with Content-Type: text/csv and a header line 'first_name,last_name,login,password,balance'.
+    @POST
+    @Path("/customers/import")
+    @Consumes({ MediaType.APPLICATION_JSON, CSV })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
+    @RolesAllowed(Authority.ADMIN_ROLE)
+    public void importCustomers(@Suspended AsyncResponse asyncResponse, InputStream input) {
+        async(asyncResponse, () -> {
+            try {
+                Iterator<CustomerPojo> customers = MediaType.valueOf(CSV).isCompatible(requestHeaders().contentType)
+                        ? new CsvReader<>(input, CustomerPojo.class)
+                        : JsonMapper.readArray(input, CustomerPojo.class);
+
+                CustomerImportReportPojo report = MainFactory.getInstance().getCustomerManager().importCustomers(customers);
+
+                return ok(report).build();
+            } catch (IllegalArgumentException | UncheckedIOException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @POST
     @Path("/customers")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.ADMIN_ROLE)
-    public Response createCustomer(CustomerPojo customerData) {
-        try {
-            // create new customer
-            CustomerPojo customer = MainFactory.getInstance().getCustomerManager().createCustomer(customerData);
-
-            // send the answer
-            return Response.ok().entity(JsonMapper.toJson(customer, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void createCustomer(@Suspended AsyncResponse asyncResponse, InputStream customerInput) {
+        async(asyncResponse, () -> {
+            try {
+                CustomerPojo customerData = readBody(customerInput, CustomerPojo.class);
+
+                // create new customer
+                CustomerPojo customer = MainFactory.getInstance().getCustomerManager().createCustomer(customerData);
+
+                // send the answer
+                return ok(customer).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @DELETE
     @Path("/customers/{id}")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.ADMIN_ROLE)
-    public Response deleteCustomer(@PathParam("id") String customerId) {
-        try {
-            MainFactory.getInstance().getCustomerManager().deleteCustomer(UUID.fromString(customerId));
-
-            // send the answer
-            return Response.ok().build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void deleteCustomer(@Suspended AsyncResponse asyncResponse, @PathParam("id") String customerId) {
+        async(asyncResponse, () -> {
+            try {
+                MainFactory.getInstance().getCustomerManager().deleteCustomer(UUID.fromString(customerId));
+
+                // send the answer
+                return Response.ok().build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @POST
     @Path("/customers/top_up_balance")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.CUSTOMER_ROLE)
-    public Response topUpBalance(@Context SecurityContext securityContext, String topUpBalancePojoStr) {
-        try {
-            AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
-
-            // convert json to object.
-            TopUpBalancePojo topUpBalancePojo = JsonMapper.fromJson(topUpBalancePojoStr, TopUpBalancePojo.class);
-
-            topUpBalancePojo.customerId = UUID.fromString(authenticatedUserDetails.getUserId());
-            MainFactory.getInstance().getCustomerManager().topUpBalance(topUpBalancePojo);
-
-            // send the answer.
-            return Response.ok().build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void topUpBalance(
+            @Suspended AsyncResponse asyncResponse,
+            @Context SecurityContext securityContext,
+            InputStream topUpBalanceData) {
+        AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+
+        async(asyncResponse, () -> {
+            try {
+                // convert json to object.
+                TopUpBalancePojo topUpBalancePojo = readBody(topUpBalanceData, TopUpBalancePojo.class);
+
+                topUpBalancePojo.customerId = UUID.fromString(authenticatedUserDetails.getUserId());
+                MainFactory.getInstance().getCustomerManager().topUpBalance(topUpBalancePojo);
+
+                // send the answer.
+                return Response.ok().build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @GET
     @Path("/plans")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.ADMIN_ROLE)
-    public Response getPlans(@DefaultValue("") @QueryParam("customer_id") String customerIdStr) {
-        try {
-            UUID customerId = null;
-            if (!StringUtils.isBlank(customerIdStr)) {
-                customerId = UUID.fromString(customerIdStr);
+    public void getPlans(
+            @Suspended AsyncResponse asyncResponse,
+            @DefaultValue("") @QueryParam("customer_id") String customerIdStr,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after) {
+        async(asyncResponse, () -> {
+            try {
+                UUID customerId = null;
+                if (!StringUtils.isBlank(customerIdStr)) {
+                    customerId = UUID.fromString(customerIdStr);
+                }
+
+                if (limit != null) {
+                    return pageResponse(MainFactory.getInstance()
+                            .getPlanManager()
+                            .getPlans(customerId, new PageRequest(limit, after)));
+                }
+
+                PlanManager planManager = MainFactory.getInstance().getPlanManager();
+                if (customerId == null) {
+                    // Весь каталог: тело ответа собирается и сжимается один раз на версию каталога.
+                    PlanCatalog catalog = planManager.getCatalog();
+                    EntityTag tag = entityTag("plans." + catalog.getVersion());
+                    if (isNotModified(tag)) {
+                        return notModified(tag);
+                    }
+                    return cachedOk("plans", catalog.getVersion(), tag, catalog::getPlans).build();
+                }
+
+                UUID planCustomerId = customerId;
+                return conditionalOk(customerPlansTag("plans", planCustomerId), () -> planManager.getPlans(planCustomerId));
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
             }
-
-            List<PlanPojo> plans = MainFactory.getInstance()
-                    .getPlanManager()
-                    .getPlans(customerId);
-
-            return Response.ok().entity(JsonMapper.toJson(plans, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+        });
     }
 
     @GET
     @Path("/available_plans")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.CUSTOMER_ROLE)
-    public Response getAvailablePlans(@Context SecurityContext securityContext) {
-        try {
-            AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
-
-            List<PlanPojo> plans = MainFactory.getInstance()
-                    .getPlanManager()
-                    .getPlans(UUID.fromString(authenticatedUserDetails.getUserId()));
-
-            return Response.ok().entity(JsonMapper.toJson(plans, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void getAvailablePlans(@Suspended AsyncResponse asyncResponse, @Context SecurityContext securityContext) {
+        AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+
+        async(asyncResponse, () -> {
+            try {
+                UUID customerId = UUID.fromString(authenticatedUserDetails.getUserId());
+
+                return conditionalOk(customerPlansTag("plans", customerId), () -> MainFactory.getInstance()
+                        .getPlanManager()
+                        .getPlans(customerId));
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @POST
     @Path("/plans")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.ADMIN_ROLE)
-    public Response createPlan(String planDataJson) {
-        try {
-            // convert json to object
-            PlanPojo planData = JsonMapper.fromJson(planDataJson, PlanPojo.class);
-
-            // create new customer
-            PlanPojo plan = MainFactory.getInstance().getPlanManager().createPlan(planData);
-
-            // send the answer
-            return Response.ok().entity(JsonMapper.toJson(plan, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void createPlan(@Suspended AsyncResponse asyncResponse, InputStream planInput) {
+        async(asyncResponse, () -> {
+            try {
+                // convert json to object
+                PlanPojo planData = readBody(planInput, PlanPojo.class);
+
+                // create new customer
+                PlanPojo plan = MainFactory.getInstance().getPlanManager().createPlan(planData);
+
+                // send the answer
+                return ok(plan).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @DELETE
     @Path("/plans/{id}")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.ADMIN_ROLE)
-    public Response deletePlan(@PathParam("id") String planId) {
-        try {
-            MainFactory.getInstance().getPlanManager().deletePlan(UUID.fromString(planId));
-
-            // send the answer
-            return Response.ok().build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void deletePlan(@Suspended AsyncResponse asyncResponse, @PathParam("id") String planId) {
+        async(asyncResponse, () -> {
+            try {
+                MainFactory.getInstance().getPlanManager().deletePlan(UUID.fromString(planId));
+
+                // send the answer
+                return Response.ok().build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @POST
     @Path("/subscriptions")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.CUSTOMER_ROLE)
-    public Response createSubscription(@Context SecurityContext securityContext, String subscriptionDataJson) {
-        try {
-            AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
-
-            // convert json to object.
-            SubscriptionPojo subscriptionPojo = JsonMapper.fromJson(subscriptionDataJson, SubscriptionPojo.class);
-
-            // create new subscription.
-            subscriptionPojo.customerId = UUID.fromString(authenticatedUserDetails.getUserId());
-            subscriptionPojo = MainFactory.getInstance().getSubscriptionManager().createSubscription(subscriptionPojo);
-
-            // send the answer.
-            return Response.ok().entity(JsonMapper.toJson(subscriptionPojo, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void createSubscription(
+            @Suspended AsyncResponse asyncResponse,
+            @Context SecurityContext securityContext,
+            InputStream subscriptionData) {
+        AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+
+        async(asyncResponse, () -> {
+            try {
+                // convert json to object.
+                SubscriptionPojo subscriptionPojo = readBody(subscriptionData, SubscriptionPojo.class);
+
+                // create new subscription.
+                subscriptionPojo.customerId = UUID.fromString(authenticatedUserDetails.getUserId());
+                subscriptionPojo = MainFactory.getInstance().getSubscriptionManager().createSubscription(subscriptionPojo);
+
+                // send the answer.
+                return ok(subscriptionPojo).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            } catch (InsufficientBalanceException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+            } catch (ConcurrentUpdateException ex) {
+                // Покупка не удалась из-за параллельных изменений, клиент может повторить запрос.
+                return Response.status(Response.Status.CONFLICT).entity(ex.getMessage()).build();
+            }
+        });
     }
 
     @DELETE
     @Path("/subscriptions/{id}")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.CUSTOMER_ROLE)
-    public Response deleteSubscription(@PathParam("id") String subscriptionId) {
-        try {
-            MainFactory.getInstance().getSubscriptionManager().deleteSubscription(UUID.fromString(subscriptionId));
-            return Response.ok().build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    public void deleteSubscription(@Suspended AsyncResponse asyncResponse, @PathParam("id") String subscriptionId) {
+        async(asyncResponse, () -> {
+            try {
+                MainFactory.getInstance().getSubscriptionManager().deleteSubscription(UUID.fromString(subscriptionId));
+                return Response.ok().build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
+    // Example request: ../subscriptions?customer_id=...&plan_details=false
+    // Example request: ../subscriptions?customer_ids=<id1>,<id2>,<id3>
     @GET
     @Path("/subscriptions")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.ADMIN_ROLE)
-    public Response getSubscriptions(@DefaultValue("") @QueryParam("customer_id") String customerIdStr) {
-        try {
-            UUID customerId = null;
-            if (!StringUtils.isBlank(customerIdStr)) {
-                customerId = UUID.fromString(customerIdStr);
+    public void getSubscriptions(
+            @Suspended AsyncResponse asyncResponse,
+            @DefaultValue("") @QueryParam("customer_id") String customerIdStr,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after,
+            @DefaultValue("true") @QueryParam("plan_details") boolean planDetails,
+            @DefaultValue("") @QueryParam("customer_ids") String customerIds) {
+        async(asyncResponse, () -> {
+            try {
+                if (!StringUtils.isBlank(customerIds)) {
+                    List<SubscriptionPojo> subscriptions = MainFactory.getInstance()
+                            .getSubscriptionManager()
+                            .getSubscriptions(parseIds(customerIds), planDetails);
+
+                    return ok(subscriptions).build();
+                }
+
+                UUID customerId = null;
+                if (!StringUtils.isBlank(customerIdStr)) {
+                    customerId = UUID.fromString(customerIdStr);
+                }
+
+                if (limit != null) {
+                    return pageResponse(MainFactory.getInstance()
+                            .getSubscriptionManager()
+                            .getSubscriptions(customerId, new PageRequest(limit, after), planDetails));
+                }
+
+                List<SubscriptionPojo> subscriptions = MainFactory.getInstance()
+                        .getSubscriptionManager()
+                        .getSubscriptions(customerId, planDetails);
+
+                return ok(subscriptions).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
             }
+        });
+    }
 
-            List<SubscriptionPojo> subscriptions = MainFactory.getInstance()
-                    .getSubscriptionManager()
-                    .getSubscriptions(customerId);
-
-            return Response.ok().entity(JsonMapper.toJson(subscriptions, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
-        }
+    // Example request: ../subscriptions/export?customer_id=...
+    @GET
+    @Path("/subscriptions/export")
+    @Produces(NDJSON)
+    @RolesAllowed(Authority.ADMIN_ROLE)
+    public void exportSubscriptions(
+            @Suspended AsyncResponse asyncResponse,
+            @DefaultValue("") @QueryParam("customer_id") String customerIdStr) {
+        async(asyncResponse, () -> {
+            try {
+                UUID customerId = null;
+                if (!StringUtils.isBlank(customerIdStr)) {
+                    customerId = UUID.fromString(customerIdStr);
+                }
+
+                UUID exportCustomerId = customerId;
+                StreamingOutput output = outputStream -> {
+                    try (NdjsonWriter writer = JsonMapper.toNdjson(outputStream)) {
+                        MainFactory.getInstance().getSubscriptionManager().exportSubscriptions(exportCustomerId, writer::write);
+                    }
+                };
+
+                return Response.ok(output, NDJSON).build();
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
     }
 
     @GET
     @Path("/available_subscriptions")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, SMILE })
     @RolesAllowed(Authority.CUSTOMER_ROLE)
-    public Response getAvailableSubscriptions(@Context SecurityContext securityContext) {
+    public void getAvailableSubscriptions(
+            @Suspended AsyncResponse asyncResponse,
+            @Context SecurityContext securityContext,
+            @DefaultValue("true") @QueryParam("plan_details") boolean planDetails) {
+        AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+
+        async(asyncResponse, () -> {
+            try {
+                UUID customerId = UUID.fromString(authenticatedUserDetails.getUserId());
+
+                return conditionalOk(customerPlansTag("subscriptions." + planDetails, customerId), () -> MainFactory.getInstance()
+                        .getSubscriptionManager()
+                        .getSubscriptions(customerId, planDetails));
+            } catch (IllegalArgumentException ex) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+            }
+        });
+    }
+
+    // Runs the request on the DB executor and resumes the suspended response with its result.
+    // The executor threads are outside of the request scope, so the request headers are read here beforehand.
+    private void async(AsyncResponse asyncResponse, Supplier<Response> request) {
+        requestHeaders();
+
+        // Either the executor starts the request or the timeout drops it, whichever comes first.
+        AtomicBoolean claimed = new AtomicBoolean();
+        Runnable task = () -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                asyncResponse.resume(request.get());
+            } catch (Throwable ex) {
+                asyncResponse.resume(ex);
+            }
+        };
+
+        asyncResponse.setTimeoutHandler(response -> {
+            if (claimed.compareAndSet(false, true)) {
+                response.resume(serviceUnavailable());
+            } else {
+                // Already started, e.g. a purchase: let it finish rather than answer before it's committed.
+                response.setTimeout(ASYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        });
+        asyncResponse.setTimeout(ASYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
         try {
-            AuthenticatedUserDetails authenticatedUserDetails = (AuthenticatedUserDetails)securityContext.getUserPrincipal();
+            MainFactory.getInstance().getDbExecutor().execute(task);
+        } catch (RejectedExecutionException ex) {
+            asyncResponse.resume(serviceUnavailable());
+        }
+    }
+
+    private static Response serviceUnavailable() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
+
+    // Successful response; the entity is serialized straight into the response stream
+    // in the format chosen by the Accept header.
+    private Response.ResponseBuilder ok(Object entity) {
+        WireFormat format = responseFormat();
+        boolean prettyPrint = isPrettyPrint();
+
+        StreamingOutput output = outputStream -> JsonMapper.write(entity, outputStream, format, prettyPrint);
+        return Response.ok(output, mediaType(format));
+    }
+
+    // Same as ok(), but the body is taken from responseBodyCache while the version of the data is the same.
+    // A compressed body goes out with its Content-Encoding, so CompressionFilter does not compress it again.
+    private Response.ResponseBuilder cachedOk(String name, long version, EntityTag tag, Supplier<?> entity) {
+        WireFormat format = responseFormat();
+        ContentEncoding encoding = ContentEncoding.negotiate(requestHeaders().acceptEncoding);
+
+        ResponseBodyCache.Body body = responseBodyCache.get(name, version, format, isPrettyPrint(), encoding, entity);
+
+        Response.ResponseBuilder response = Response.ok(body.getBytes(), mediaType(format))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .cacheControl(revalidate())
+                .tag(tag);
+        if (body.getEncoding() != null) {
+            response.header(HttpHeaders.CONTENT_ENCODING, body.getEncoding().getName());
+            response.tag(body.getEncoding().tag(tag));
+        }
+        return response;
+    }
+
+    // Conditional GET: if the client already has the representation with this ETag, answer 304
+    // without reading and serializing the data.
+    private Response conditionalOk(EntityTag tag, Supplier<?> entity) {
+        if (isNotModified(tag)) {
+            return notModified(tag);
+        }
+        return ok(entity.get()).cacheControl(revalidate()).tag(tag).build();
+    }
+
+    // ETag of the plan or subscription list of a customer. The versions are read before the data,
+    // so a change that races with the request can only make the ETag older than the body, never newer.
+    private EntityTag customerPlansTag(String name, UUID customerId) {
+        PlanManager planManager = MainFactory.getInstance().getPlanManager();
+        return entityTag(name + "." + planManager.getCatalog().getVersion()
+                + "." + customerId + "." + planManager.getSubscriptionsVersion(customerId));
+    }
+
+    // Strong ETag: the data version plus everything else that changes the bytes of the body.
+    // Versions are counted in memory from the start, so the start time of the process is a part of it too.
+    private EntityTag entityTag(String version) {
+        return new EntityTag(ENTITY_TAG_EPOCH + "." + version + "." + responseFormat() + (isPrettyPrint() ? ".pretty" : ""));
+    }
+
+    // If-None-Match uses weak comparison; the coding suffix of compressed representations is ignored as well.
+    private boolean isNotModified(EntityTag tag) {
+        String ifNoneMatch = requestHeaders().ifNoneMatch;
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String value : ifNoneMatch.split(",")) {
+            value = value.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            value = StringUtils.removeStart(value, "W/");
+            value = StringUtils.removeEnd(StringUtils.removeStart(value, "\""), "\"");
+            if (ContentEncoding.untag(value).equals(tag.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Response notModified(EntityTag tag) {
+        return Response.notModified(tag).cacheControl(revalidate()).build();
+    }
+
+    // Browsers may keep the response, but must check the ETag with the server before every use.
+    private static CacheControl revalidate() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+        return cacheControl;
+    }
+
+    private boolean isPrettyPrint() {
+        return pretty != null && !"false".equalsIgnoreCase(pretty);
+    }
+
+    private static String mediaType(WireFormat format) {
+        return format == WireFormat.SMILE ? SMILE : MediaType.APPLICATION_JSON;
+    }
+
+    private WireFormat responseFormat() {
+        return requestHeaders().responseFormat;
+    }
 
-            List<SubscriptionPojo> subscriptions = MainFactory.getInstance()
-                    .getSubscriptionManager()
-                    .getSubscriptions(UUID.fromString(authenticatedUserDetails.getUserId()));
+    // The first acceptable media type (they are sorted by quality) that we can produce wins, so */* means JSON.
+    private static WireFormat responseFormat(List<MediaType> acceptableMediaTypes) {
+        for (MediaType mediaType : acceptableMediaTypes) {
+            if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return WireFormat.JSON;
+            }
+            if (mediaType.isCompatible(MediaType.valueOf(SMILE))) {
+                return WireFormat.SMILE;
+            }
+        }
+        return WireFormat.JSON;
+    }
+
+    // Request body in the format of its Content-Type.
+    private <T> T readBody(InputStream input, Class<T> pojoClass) {
+        MediaType contentType = requestHeaders().contentType;
+        boolean smile = contentType != null && contentType.isCompatible(MediaType.valueOf(SMILE));
+        return JsonMapper.read(input, pojoClass, smile ? WireFormat.SMILE : WireFormat.JSON);
+    }
+
+    // Comma separated list of ids, e.g. ?ids=<id1>,<id2>.
+    private static List<UUID> parseIds(String ids) {
+        return Arrays.stream(ids.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .map(UUID::fromString)
+                .collect(Collectors.toList());
+    }
+
+    private Response pageResponse(Page<?> page) {
+        Response.ResponseBuilder response = ok(page.getItems());
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.build();
+    }
+
+    private RequestHeaders requestHeaders() {
+        if (requestHeaders == null) {
+            requestHeaders = new RequestHeaders(headers);
+        }
+        return requestHeaders;
+    }
 
-            return Response.ok().entity(JsonMapper.toJson(subscriptions, true)).build();
-        } catch (IllegalArgumentException ex) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n" + ExceptionUtils.getFullStackTrace(ex)).build();
+    private static final class RequestHeaders {
+        final MediaType contentType;
+        final WireFormat responseFormat;
+        final String acceptEncoding;
+        final String ifNoneMatch;
+
+        RequestHeaders(HttpHeaders headers) {
+            contentType = headers.getMediaType();
+            responseFormat = responseFormat(headers.getAcceptableMediaTypes());
+            acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+            ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
         }
     }
 }
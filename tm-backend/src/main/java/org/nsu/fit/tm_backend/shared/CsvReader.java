@@ -0,0 +1,148 @@
+package org.nsu.fit.tm_backend.shared;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the records of a CSV stream (RFC 4180: comma separated, fields may be quoted
+ * with '"', a quote inside a quoted field is doubled). The first record is the header with
+ * JSON property names of the pojo; empty fields are left unset.
+ *
+ * A record that cannot be mapped to the pojo fails with IllegalArgumentException and
+ * the iteration may go on; a read error fails with UncheckedIOException and ends it.
+ */
+public class CsvReader<T> implements Iterator<T> {
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char BOM = '\uFEFF';
+
+    private final Reader reader;
+    private final Class<T> pojoClass;
+    private final List<String> header;
+
+    private List<String> next;
+    private boolean finished;
+
+    public CsvReader(InputStream inputStream, Class<T> pojoClass) {
+        this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        this.pojoClass = pojoClass;
+
+        List<String> header = readRecord();
+        if (header == null) {
+            header = Collections.emptyList();
+        } else if (!header.isEmpty() && !header.get(0).isEmpty() && header.get(0).charAt(0) == BOM) {
+            header.set(0, header.get(0).substring(1));
+        }
+        this.header = header;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !finished) {
+            next = readRecord();
+            if (next == null) {
+                finished = true;
+            } else if (next.size() == 1 && next.get(0).isEmpty()) {
+                // Пустые строки пропускаем.
+                next = null;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        List<String> record = next;
+        next = null;
+
+        if (record.size() != header.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected %s fields but got %s.", header.size(), record.size()));
+        }
+
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < record.size(); i++) {
+            if (!record.get(i).isEmpty()) {
+                values.put(header.get(i).trim(), record.get(i));
+            }
+        }
+        try {
+            return JsonMapper.convert(values, pojoClass);
+        } catch (IllegalArgumentException ex) {
+            // Сообщение без ссылки на источник: у сконвертированной записи он не имеет смысла.
+            if (ex.getCause() instanceof JsonProcessingException) {
+                throw new IllegalArgumentException(((JsonProcessingException)ex.getCause()).getOriginalMessage(), ex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads one record, returns null at the end of the stream.
+     */
+    private List<String> readRecord() {
+        try {
+            List<String> record = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean empty = true;
+
+            int c;
+            while ((c = reader.read()) != -1) {
+                empty = false;
+                if (quoted) {
+                    if (c != QUOTE) {
+                        field.append((char)c);
+                        continue;
+                    }
+                    reader.mark(1);
+                    if (reader.read() == QUOTE) {
+                        field.append(QUOTE);
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else if (c == QUOTE) {
+                    quoted = true;
+                } else if (c == SEPARATOR) {
+                    record.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char)c);
+                }
+            }
+
+            if (empty) {
+                return null;
+            }
+            if (quoted) {
+                throw new IOException("Unterminated quoted field.");
+            }
+            record.add(field.toString());
+            return record;
+        } catch (IOException ex) {
+            finished = true;
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
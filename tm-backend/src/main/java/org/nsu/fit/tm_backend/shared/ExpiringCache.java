@@ -0,0 +1,130 @@
+package org.nsu.fit.tm_backend.shared;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded thread-safe cache whose entries expire at the time given on {@link #put}.
+ *
+ * Reads are lock-free. When the cache is full, expired entries are removed first and then,
+ * if that's not enough, arbitrary entries (the cache is an optimization, a miss is always safe).
+ */
+public class ExpiringCache<K, V> {
+    private final int maxSize;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public ExpiringCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize");
+        }
+
+        this.maxSize = maxSize;
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    public void put(K key, V value, long expiresAtMillis) {
+        if (expiresAtMillis <= System.currentTimeMillis()) {
+            return;
+        }
+
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+
+        entries.put(key, new Entry<>(value, expiresAtMillis));
+    }
+
+    /**
+     * Return the value of the key, loading it if the key is absent or expired.
+     * As with {@link ConcurrentHashMap#computeIfAbsent}, concurrent updates of the key wait for the loader.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader, long expiresAtMillis) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+
+        return entries.computeIfAbsent(key, k -> new Entry<>(loader.apply(k), expiresAtMillis)).value;
+    }
+
+    /**
+     * Replace the value of the key if it is cached; the entry keeps its expiration time.
+     */
+    public void computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        entries.computeIfPresent(key, (k, entry) -> new Entry<>(remapping.apply(k, entry.value), entry.expiresAt));
+    }
+
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all entries whose value matches the predicate.
+     */
+    public void removeIf(Predicate<? super V> predicate) {
+        entries.values().removeIf(entry -> predicate.test(entry.value));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        // Вытеснением занимается один поток, остальные не ждут.
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+            int target = maxSize - maxSize / 10 - 1;
+            while (entries.size() > target && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -18,6 +18,12 @@ public class Globals {
 
     public static final String AUTHENTICATION_JWT_SECRET = "secret";
 
+    // How many verified tokens are kept in memory to skip signature verification.
+    public static final int AUTHENTICATION_JWT_CACHE_SIZE = 10000;
+
+    // Responses of at least this many bytes are compressed if the client accepts gzip or deflate.
+    public static final int RESPONSE_COMPRESSION_THRESHOLD = 1024;
+
     public static final String AUTHENTICATION_JWT_CLAIM_NAMES_AUTHORITIES = "authorities";
     public static final String AUTHENTICATION_JWT_CLAIM_NAMES_REFRESH_COUNT = "refreshCount";
     public static final String AUTHENTICATION_JWT_CLAIM_NAMES_REFRESH_LIMIT = "refreshLimit";
@@ -0,0 +1,79 @@
+package org.nsu.fit.tm_backend.shared;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the elements of a top-level JSON array read from a stream. Only the current
+ * element is kept in memory.
+ *
+ * An element that cannot be mapped to the pojo fails with IllegalArgumentException and
+ * the iteration may go on; malformed JSON fails with UncheckedIOException and ends it.
+ */
+public class JsonArrayReader<T> implements Iterator<T> {
+    private final ObjectMapper mapper;
+    private final JsonParser parser;
+    private final Class<T> pojoClass;
+
+    private JsonNode next;
+    private boolean hasNext;
+    private boolean finished;
+
+    JsonArrayReader(ObjectMapper mapper, InputStream inputStream, Class<T> pojoClass) throws IOException {
+        this.mapper = mapper;
+        this.parser = mapper.getFactory().createParser(inputStream);
+        this.pojoClass = pojoClass;
+
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Expected a JSON array.");
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!hasNext && !finished) {
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == null || token == JsonToken.END_ARRAY) {
+                    finished = true;
+                } else {
+                    next = parser.readValueAsTree();
+                    hasNext = true;
+                }
+            } catch (IOException ex) {
+                finished = true;
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        JsonNode node = next;
+        next = null;
+        hasNext = false;
+
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        try {
+            return mapper.treeToValue(node, pojoClass);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException(ex.getOriginalMessage(), ex);
+        }
+    }
+}
@@ -1,19 +1,42 @@
 package org.nsu.fit.tm_backend.shared;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class JsonMapper {
-    private static final ObjectMapper m = new ObjectMapper();
-    private static final JsonFactory jf = new JsonFactory();
+    private static final Codec json = new Codec(new ObjectMapper());
+    private static final Codec smile = new Codec(new ObjectMapper(new SmileFactory()));
+
+    private static final ObjectMapper m = json.mapper;
+    private static final ObjectWriter compactWriter = m.writer();
 
     public static <T> T fromJson(String jsonAsString, Class<T> pojoClass) {
         try {
-            return m.readValue(jsonAsString, pojoClass);
+            return json.reader(pojoClass).readValue(jsonAsString);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static <T> T fromJson(InputStream inputStream, Class<T> pojoClass) {
+        return read(inputStream, pojoClass, WireFormat.JSON);
+    }
+
+    /**
+     * Reads a pojo encoded in the given format from the stream.
+     */
+    public static <T> T read(InputStream inputStream, Class<T> pojoClass, WireFormat format) {
+        try {
+            return codec(format).reader(pojoClass).readValue(inputStream);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -21,15 +44,91 @@ public class JsonMapper {
 
     public static String toJson(Object pojo, boolean prettyPrint) {
         try {
-            StringWriter sw = new StringWriter();
-            JsonGenerator jg = jf.createGenerator(sw);
-            if (prettyPrint) {
-                jg.useDefaultPrettyPrinter();
-            }
-            m.writeValue(jg, pojo);
-            return sw.toString();
+            return json.writer(pojo, prettyPrint).writeValueAsString(pojo);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
+
+    /**
+     * Serializes the pojo straight into the stream, without building an intermediate string.
+     * The stream is left open.
+     */
+    public static void writeJson(Object pojo, OutputStream outputStream, boolean prettyPrint) throws IOException {
+        write(pojo, outputStream, WireFormat.JSON, prettyPrint);
+    }
+
+    /**
+     * Same as {@link #writeJson}, but in the given format; prettyPrint only affects text JSON.
+     */
+    public static void write(Object pojo, OutputStream outputStream, WireFormat format, boolean prettyPrint) throws IOException {
+        codec(format).writer(pojo, prettyPrint && format == WireFormat.JSON).writeValue(outputStream, pojo);
+    }
+
+    /**
+     * Converts a map of property values (for example, a parsed CSV record) to a pojo.
+     * Throws IllegalArgumentException if the values do not fit the pojo.
+     */
+    public static <T> T convert(Object value, Class<T> pojoClass) {
+        return m.convertValue(value, pojoClass);
+    }
+
+    /**
+     * Reads the elements of a top-level JSON array one by one, without loading the whole array.
+     */
+    public static <T> JsonArrayReader<T> readArray(InputStream inputStream, Class<T> pojoClass) {
+        try {
+            return new JsonArrayReader<>(m, inputStream, pojoClass);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Malformed JSON: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Creates a writer of newline-delimited JSON on top of the given stream.
+     */
+    public static NdjsonWriter toNdjson(OutputStream outputStream) throws IOException {
+        return new NdjsonWriter(compactWriter, outputStream);
+    }
+
+    // Cached reader/writer lookups, package-private for tests.
+    static ObjectReader reader(Class<?> pojoClass, WireFormat format) {
+        return codec(format).reader(pojoClass);
+    }
+
+    static ObjectWriter writer(Object pojo, WireFormat format, boolean prettyPrint) {
+        return codec(format).writer(pojo, prettyPrint);
+    }
+
+    private static Codec codec(WireFormat format) {
+        return format == WireFormat.SMILE ? smile : json;
+    }
+
+    /**
+     * Mapper of one format with its readers and writers. ObjectReader/ObjectWriter are immutable
+     * and thread-safe: they are created once per type and reused.
+     */
+    private static class Codec {
+        private final ObjectMapper mapper;
+
+        private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, ObjectWriter> compactWriters = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, ObjectWriter> prettyWriters = new ConcurrentHashMap<>();
+
+        private Codec(ObjectMapper mapper) {
+            // The target stream belongs to the caller (e.g. the servlet response), so it is never closed here.
+            this.mapper = mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        }
+
+        private ObjectReader reader(Class<?> pojoClass) {
+            return readers.computeIfAbsent(pojoClass, mapper::readerFor);
+        }
+
+        private ObjectWriter writer(Object pojo, boolean prettyPrint) {
+            Class<?> type = pojo == null ? Object.class : pojo.getClass();
+            return prettyPrint
+                    ? prettyWriters.computeIfAbsent(type, t -> mapper.writerFor(t).withDefaultPrettyPrinter())
+                    : compactWriters.computeIfAbsent(type, mapper::writerFor);
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package org.nsu.fit.tm_backend.shared;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes values as newline-delimited JSON (one compact JSON document per line) straight into
+ * an output stream. The stream is flushed every {@link #FLUSH_INTERVAL} values rather than after each one,
+ * so that the client still sees the export progress. Closing the writer flushes it but leaves the stream open.
+ */
+public class NdjsonWriter implements Closeable {
+    static final int FLUSH_INTERVAL = 1000;
+
+    private final ObjectWriter writer;
+    private final JsonGenerator generator;
+    private int unflushed;
+
+    NdjsonWriter(ObjectWriter writer, OutputStream outputStream) throws IOException {
+        this.writer = writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.generator = writer.getFactory().createGenerator(outputStream);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Values are separated by '\n' written after each value, not by the default root separator (space).
+        this.generator.setRootValueSeparator(null);
+    }
+
+    public void write(Object pojo) throws IOException {
+        writer.writeValue(generator, pojo);
+        generator.writeRaw('\n');
+
+        if (++unflushed == FLUSH_INTERVAL) {
+            generator.flush();
+            unflushed = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
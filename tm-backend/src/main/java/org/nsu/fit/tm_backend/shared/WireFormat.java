@@ -0,0 +1,11 @@
+package org.nsu.fit.tm_backend.shared;
+
+/**
+ * Encodings of the Jackson data model supported by {@link JsonMapper}.
+ */
+public enum WireFormat {
+    // Text JSON, the default.
+    JSON,
+    // Smile: binary JSON, cheaper to parse and smaller on the wire.
+    SMILE
+}
@@ -0,0 +1,23 @@
+-- Исходная схема (см. db_create.sql до появления миграций).
+-- IF NOT EXISTS позволяет применить скрипт к базе, созданной вручную.
+CREATE TABLE IF NOT EXISTS `CUSTOMER` (
+	`id` TEXT NOT NULL,
+	`first_name` TEXT NOT NULL,
+	`last_name` TEXT NOT NULL,
+	`login` TEXT NOT NULL,
+	`pass` TEXT NOT NULL,
+	`balance` INT(11) NOT NULL DEFAULT '0'
+);
+
+CREATE TABLE IF NOT EXISTS `PLAN` (
+	`id` TEXT NOT NULL,
+	`name` TEXT NOT NULL,
+	`details` TEXT NOT NULL,
+	`fee` INT(11) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS `SUBSCRIPTION` (
+	`id` TEXT NOT NULL,
+	`customer_id` TEXT NOT NULL,
+	`plan_id` TEXT NOT NULL
+);
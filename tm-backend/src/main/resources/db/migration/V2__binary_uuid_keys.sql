@@ -0,0 +1,54 @@
+-- Переводим идентификаторы из TEXT в BINARY(16), добавляем первичные ключи и индексы.
+-- UNHEX(REPLACE(id, '-', '')) дает тот же порядок байт, что и UUID.getMostSignificantBits/getLeastSignificantBits.
+--
+-- DDL в MySQL не транзакционный, поэтому новые таблицы сначала собираются рядом со старыми (*_NEW),
+-- а подменяют старые одним RENAME TABLE. До него старые таблицы не меняются, и скрипт после ошибки
+-- можно просто применить заново. Повторяющийся login, пустой или некорректный id роняют INSERT в новую
+-- таблицу (NOT NULL и уникальные индексы) - тоже до того, как что-то поменялось.
+-- Если RENAME уже выполнен (id уже BINARY(16)), скрипт пропускается по директиве skip-if; таблицы *_OLD,
+-- если сбой случился до их удаления, ни на что не влияют и могут быть удалены в любой момент.
+--
+-- skip-if: SELECT COUNT(*) FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'CUSTOMER' AND COLUMN_NAME = 'id' AND DATA_TYPE = 'binary' AND CHARACTER_MAXIMUM_LENGTH = 16
+
+DROP TABLE IF EXISTS `CUSTOMER_NEW`, `PLAN_NEW`, `SUBSCRIPTION_NEW`;
+
+-- CUSTOMER
+CREATE TABLE `CUSTOMER_NEW` LIKE `CUSTOMER`;
+ALTER TABLE `CUSTOMER_NEW`
+	MODIFY COLUMN `id` BINARY(16) NOT NULL FIRST,
+	MODIFY COLUMN `login` VARCHAR(255) NOT NULL,
+	ADD PRIMARY KEY (`id`),
+	ADD UNIQUE INDEX `ux_customer_login` (`login`);
+INSERT INTO `CUSTOMER_NEW` (`id`, `first_name`, `last_name`, `login`, `pass`, `balance`)
+SELECT UNHEX(REPLACE(`id`, '-', '')), `first_name`, `last_name`, `login`, `pass`, `balance`
+FROM `CUSTOMER`;
+
+-- PLAN
+CREATE TABLE `PLAN_NEW` LIKE `PLAN`;
+ALTER TABLE `PLAN_NEW`
+	MODIFY COLUMN `id` BINARY(16) NOT NULL FIRST,
+	ADD PRIMARY KEY (`id`);
+INSERT INTO `PLAN_NEW` (`id`, `name`, `details`, `fee`)
+SELECT UNHEX(REPLACE(`id`, '-', '')), `name`, `details`, `fee`
+FROM `PLAN`;
+
+-- SUBSCRIPTION
+CREATE TABLE `SUBSCRIPTION_NEW` LIKE `SUBSCRIPTION`;
+ALTER TABLE `SUBSCRIPTION_NEW`
+	MODIFY COLUMN `id` BINARY(16) NOT NULL FIRST,
+	MODIFY COLUMN `customer_id` BINARY(16) NOT NULL AFTER `id`,
+	MODIFY COLUMN `plan_id` BINARY(16) NOT NULL AFTER `customer_id`,
+	ADD PRIMARY KEY (`id`),
+	ADD INDEX `ix_subscription_customer_id` (`customer_id`),
+	ADD INDEX `ix_subscription_plan_id` (`plan_id`);
+INSERT INTO `SUBSCRIPTION_NEW` (`id`, `customer_id`, `plan_id`)
+SELECT UNHEX(REPLACE(`id`, '-', '')), UNHEX(REPLACE(`customer_id`, '-', '')), UNHEX(REPLACE(`plan_id`, '-', ''))
+FROM `SUBSCRIPTION`;
+
+-- Подмена всех трех таблиц атомарна.
+RENAME TABLE
+	`CUSTOMER` TO `CUSTOMER_OLD`, `CUSTOMER_NEW` TO `CUSTOMER`,
+	`PLAN` TO `PLAN_OLD`, `PLAN_NEW` TO `PLAN`,
+	`SUBSCRIPTION` TO `SUBSCRIPTION_OLD`, `SUBSCRIPTION_NEW` TO `SUBSCRIPTION`;
+
+DROP TABLE IF EXISTS `CUSTOMER_OLD`, `PLAN_OLD`, `SUBSCRIPTION_OLD`;
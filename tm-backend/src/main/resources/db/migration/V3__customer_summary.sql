@@ -0,0 +1,16 @@
+-- Инкрементально поддерживаемые агрегаты по customer'ам: баланс, сумма стоимости подписок и их количество.
+-- Обновляются в тех же транзакциях, что и CUSTOMER/SUBSCRIPTION (см. DBService).
+CREATE TABLE IF NOT EXISTS `CUSTOMER_SUMMARY` (
+	`customer_id` BINARY(16) NOT NULL,
+	`balance` BIGINT NOT NULL DEFAULT '0',
+	`total_fee` BIGINT NOT NULL DEFAULT '0',
+	`subscription_count` INT NOT NULL DEFAULT '0',
+	PRIMARY KEY (`customer_id`)
+);
+
+INSERT INTO `CUSTOMER_SUMMARY` (`customer_id`, `balance`, `total_fee`, `subscription_count`)
+SELECT c.`id`, c.`balance`, COALESCE(SUM(p.`fee`), 0), COUNT(s.`id`)
+FROM `CUSTOMER` c
+	LEFT JOIN `SUBSCRIPTION` s ON s.`customer_id` = c.`id`
+	LEFT JOIN `PLAN` p ON p.`id` = s.`plan_id`
+GROUP BY c.`id`, c.`balance`;
@@ -0,0 +1,13 @@
+-- Журнал изменений баланса: строки только добавляются.
+-- CUSTOMER.balance становится снимком, в который фоновый процесс сворачивает записи журнала
+-- и помечает их folded = 1; текущий баланс = balance + сумма записей с folded = 0.
+CREATE TABLE IF NOT EXISTS `BALANCE_LEDGER` (
+	`seq` BIGINT NOT NULL AUTO_INCREMENT,
+	`customer_id` BINARY(16) NOT NULL,
+	`delta` INT NOT NULL,
+	`folded` TINYINT NOT NULL DEFAULT '0',
+	`created_at` TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+	PRIMARY KEY (`seq`),
+	INDEX `ix_balance_ledger_customer_folded` (`customer_id`, `folded`),
+	INDEX `ix_balance_ledger_folded` (`folded`)
+);
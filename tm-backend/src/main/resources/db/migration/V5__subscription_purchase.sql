@@ -0,0 +1,16 @@
+-- Версия строки customer'а для оптимистичных блокировок при покупке подписки.
+ALTER TABLE `CUSTOMER` ADD COLUMN `version` BIGINT NOT NULL DEFAULT '0';
+
+-- Перед добавлением уникального индекса удаляем повторные подписки на один и тот же план.
+DELETE s1 FROM `SUBSCRIPTION` s1
+	JOIN `SUBSCRIPTION` s2 ON s2.`customer_id` = s1.`customer_id` AND s2.`plan_id` = s1.`plan_id` AND s2.`id` < s1.`id`;
+
+UPDATE `CUSTOMER_SUMMARY` cs
+	LEFT JOIN (
+		SELECT s.`customer_id`, COALESCE(SUM(p.`fee`), 0) AS `total_fee`, COUNT(*) AS `subscription_count`
+		FROM `SUBSCRIPTION` s LEFT JOIN `PLAN` p ON p.`id` = s.`plan_id`
+		GROUP BY s.`customer_id`
+	) a ON a.`customer_id` = cs.`customer_id`
+SET cs.`total_fee` = COALESCE(a.`total_fee`, 0), cs.`subscription_count` = COALESCE(a.`subscription_count`, 0);
+
+ALTER TABLE `SUBSCRIPTION` ADD UNIQUE INDEX `ux_subscription_customer_plan` (`customer_id`, `plan_id`);
@@ -0,0 +1,128 @@
+package org.nsu.fit.tm_backend.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.data.AccountTokenStoreStatsPojo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+
+class AccountTokenStoreTest {
+    // Тик в час реального времени: фоновый sweeper не вмешивается, тесты вызывают sweep сами.
+    private static final long TICK_MILLIS = 60 * 60 * 1000;
+    private static final long TTL_MILLIS = 10 * TICK_MILLIS;
+
+    private AtomicLong now;
+    private AccountTokenStore store;
+
+    @BeforeEach
+    void init() {
+        now = new AtomicLong(1_000 * TICK_MILLIS);
+        store = new AccountTokenStore(mock(Logger.class), TTL_MILLIS, TICK_MILLIS, now::get);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void testContainsDropsExpiredToken() {
+        store.add("token");
+        assertTrue(store.contains("token"));
+
+        // Sweeper до токена еще не дошел, но он уже истек.
+        now.addAndGet(TTL_MILLIS);
+        assertFalse(store.contains("token"));
+
+        assertEquals(0, store.size());
+        AccountTokenStoreStatsPojo stats = store.getStats();
+        assertEquals(1, stats.evictions);
+    }
+
+    @Test
+    void testSweepEvictsExpiredTokens() {
+        store.add("first");
+        now.addAndGet(2 * TICK_MILLIS);
+        store.add("second");
+
+        // Тик первого уже прошел целиком, второй еще не истек.
+        now.addAndGet(TTL_MILLIS - TICK_MILLIS);
+        store.sweep();
+        assertEquals(1, store.size());
+        assertTrue(store.contains("second"));
+
+        now.addAndGet(2 * TICK_MILLIS);
+        store.sweep();
+        assertEquals(0, store.size());
+        assertEquals(2, store.getStats().evictions);
+    }
+
+    @Test
+    void testSweepCatchesUpOnMissedTicks() {
+        for (int i = 0; i < 5; i++) {
+            store.add("token" + i);
+            now.addAndGet(TICK_MILLIS);
+        }
+
+        // Sweeper не запускался несколько тиков подряд: один вызов обходит все пропущенные слоты.
+        now.addAndGet(TTL_MILLIS + TICK_MILLIS);
+        store.sweep();
+
+        assertEquals(0, store.size());
+        assertEquals(5, store.getStats().evictions);
+    }
+
+    @Test
+    void testReAddedTokenMovesToLaterSlot() {
+        store.add("token");
+        now.addAndGet(TTL_MILLIS / 2);
+        store.add("token");
+
+        // Первый срок прошел: токен не удаляется, а переносится в слот нового срока.
+        now.addAndGet(TTL_MILLIS / 2 + TICK_MILLIS);
+        store.sweep();
+        assertTrue(store.contains("token"));
+        assertEquals(0, store.getStats().evictions);
+
+        now.addAndGet(TTL_MILLIS / 2);
+        store.sweep();
+        assertEquals(0, store.size());
+        assertEquals(1, store.getStats().evictions);
+    }
+
+    @Test
+    void testRemovedTokenIsSkippedBySweep() {
+        store.add("token");
+        store.remove("token");
+
+        now.addAndGet(TTL_MILLIS + TICK_MILLIS);
+        store.sweep();
+
+        assertEquals(0, store.getStats().evictions);
+    }
+
+    @Test
+    void testStats() {
+        store.add("first");
+        store.add("second");
+
+        store.contains("first");
+        store.contains("unknown");
+        store.contains("unknown");
+
+        AccountTokenStoreStatsPojo stats = store.getStats();
+        assertEquals(2, stats.size);
+        assertEquals(3, stats.lookups);
+        assertEquals(2, stats.misses);
+        assertEquals(0, stats.evictions);
+    }
+}
@@ -0,0 +1,211 @@
+package org.nsu.fit.tm_backend.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class BalanceLedgerTest {
+    private static final long LONG_SNAPSHOT_INTERVAL_MILLIS = 60 * 60 * 1000;
+    private static final long LONG_TIMEOUT_MILLIS = 10_000;
+
+    private ConnectionPool connectionPool;
+    private Connection connection;
+    private PreparedStatement insertDelta;
+    private PreparedStatement addSummaryBalance;
+    private PreparedStatement selectUnfolded;
+    private PreparedStatement addSnapshotBalance;
+    private PreparedStatement markFolded;
+
+    private BalanceLedger ledger;
+
+    @BeforeEach
+    void init() throws SQLException {
+        connectionPool = mock(ConnectionPool.class);
+        connection = mock(Connection.class);
+        insertDelta = mock(PreparedStatement.class);
+        addSummaryBalance = mock(PreparedStatement.class);
+        selectUnfolded = mock(PreparedStatement.class);
+        addSnapshotBalance = mock(PreparedStatement.class);
+        markFolded = mock(PreparedStatement.class);
+
+        when(connectionPool.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            if (sql.startsWith("INSERT INTO BALANCE_LEDGER")) {
+                return insertDelta;
+            } else if (sql.startsWith("UPDATE CUSTOMER_SUMMARY")) {
+                return addSummaryBalance;
+            } else if (sql.startsWith("SELECT seq")) {
+                return selectUnfolded;
+            } else if (sql.startsWith("UPDATE CUSTOMER SET")) {
+                return addSnapshotBalance;
+            } else if (sql.startsWith("UPDATE BALANCE_LEDGER")) {
+                return markFolded;
+            }
+            throw new IllegalArgumentException(sql);
+        });
+        when(insertDelta.executeBatch()).thenReturn(new int[] { 1 });
+        when(addSummaryBalance.executeBatch()).thenReturn(new int[] { 1 });
+    }
+
+    @AfterEach
+    void close() {
+        if (ledger != null) {
+            ledger.close();
+        }
+    }
+
+    @Test
+    void testAppendCommitsDelta() throws SQLException {
+        ledger = createLedger(LONG_SNAPSHOT_INTERVAL_MILLIS, LONG_TIMEOUT_MILLIS);
+        UUID customerId = UUID.randomUUID();
+
+        ledger.append(customerId, 100);
+
+        verify(insertDelta).setInt(1, 100);
+        verify(insertDelta).setBytes(2, UuidConverter.toBytes(customerId));
+        verify(connection).commit();
+    }
+
+    @Test
+    void testAppendForUnknownCustomer() throws SQLException {
+        when(insertDelta.executeBatch()).thenReturn(new int[] { 0 });
+        ledger = createLedger(LONG_SNAPSHOT_INTERVAL_MILLIS, LONG_TIMEOUT_MILLIS);
+
+        assertThrows(IllegalArgumentException.class, () -> ledger.append(UUID.randomUUID(), 100));
+    }
+
+    @Test
+    void testSnapshotFoldsUnfoldedRows() throws SQLException {
+        UUID firstId = UUID.randomUUID();
+        UUID secondId = UUID.randomUUID();
+        ResultSet rs = mock(ResultSet.class);
+        when(selectUnfolded.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getLong(1)).thenReturn(1L, 2L, 3L);
+        when(rs.getBytes(2)).thenReturn(UuidConverter.toBytes(firstId), UuidConverter.toBytes(secondId), UuidConverter.toBytes(firstId));
+        when(rs.getInt(3)).thenReturn(100, 50, -30);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_REPEATABLE_READ);
+
+        ledger = createLedger(10, LONG_TIMEOUT_MILLIS);
+
+        verify(connection, timeout(LONG_TIMEOUT_MILLIS)).commit();
+        // Снимок увеличивается на сумму взятых строк, и ровно эти строки помечаются свернутыми.
+        verify(addSnapshotBalance).setLong(1, 70);
+        verify(addSnapshotBalance).setBytes(2, UuidConverter.toBytes(firstId));
+        verify(addSnapshotBalance).setLong(1, 50);
+        verify(addSnapshotBalance).setBytes(2, UuidConverter.toBytes(secondId));
+        verify(markFolded).setLong(1, 1);
+        verify(markFolded).setLong(1, 2);
+        verify(markFolded).setLong(1, 3);
+        verify(markFolded).executeBatch();
+
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        inOrder.verify(connection).commit();
+        inOrder.verify(connection).setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+    }
+
+    @Test
+    void testSnapshotWithoutUnfoldedRows() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(selectUnfolded.executeQuery()).thenReturn(rs);
+
+        ledger = createLedger(10, LONG_TIMEOUT_MILLIS);
+
+        verify(selectUnfolded, timeout(LONG_TIMEOUT_MILLIS).atLeastOnce()).executeQuery();
+        verify(addSnapshotBalance, never()).executeBatch();
+        verify(markFolded, never()).executeBatch();
+    }
+
+    @Test
+    void testTimedOutDeltaIsNotWritten() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockFirstWrite(writing, release);
+
+        ledger = createLedger(LONG_SNAPSHOT_INTERVAL_MILLIS, 100);
+        UUID firstId = UUID.randomUUID();
+        UUID secondId = UUID.randomUUID();
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> ledger.append(firstId, 100));
+        writing.await(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Writer занят первой дельтой, вторая отзывается по таймауту.
+        assertThrows(RuntimeException.class, () -> ledger.append(secondId, 200));
+
+        // Первая дельта уже взята writer'ом: append ждет ее коммита, а не падает по таймауту.
+        release.countDown();
+        first.get(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Следующая пачка пишется без отозванной дельты.
+        ledger.append(firstId, 300);
+
+        verify(insertDelta, never()).setBytes(2, UuidConverter.toBytes(secondId));
+        verify(insertDelta, never()).setInt(1, 200);
+        verify(connection, times(2)).commit();
+    }
+
+    @Test
+    void testCloseFailsQueuedDeltas() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockFirstWrite(writing, release);
+
+        ledger = createLedger(LONG_SNAPSHOT_INTERVAL_MILLIS, LONG_TIMEOUT_MILLIS);
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> ledger.append(UUID.randomUUID(), 100));
+        writing.await(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> ledger.append(UUID.randomUUID(), 200));
+
+        // Ждем, пока вторая дельта окажется в буфере.
+        Thread.sleep(100);
+        ledger.close();
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> queued.get(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(IllegalStateException.class, ex.getCause().getClass());
+        assertThrows(IllegalStateException.class, () -> ledger.append(UUID.randomUUID(), 300));
+
+        // Прерванная запись первой дельты тоже завершается ошибкой, а не зависает.
+        assertThrows(ExecutionException.class, () -> first.get(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        verify(connection, never()).commit();
+    }
+
+    private BalanceLedger createLedger(long snapshotIntervalMillis, long appendTimeoutMillis) {
+        return new BalanceLedger(mock(Logger.class), connectionPool, 100, snapshotIntervalMillis, appendTimeoutMillis);
+    }
+
+    // Первая запись ждет release; close() прерывает ожидание, как прервал бы ожидание соединения.
+    private void blockFirstWrite(CountDownLatch writing, CountDownLatch release) throws SQLException {
+        when(connectionPool.getConnection())
+                .thenAnswer(invocation -> {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        throw new SQLException("Interrupted while waiting for a database connection.", ex);
+                    }
+                    return connection;
+                })
+                .thenReturn(connection);
+    }
+}
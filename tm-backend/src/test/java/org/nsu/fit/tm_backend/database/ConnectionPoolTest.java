@@ -0,0 +1,174 @@
+package org.nsu.fit.tm_backend.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.data.ConnectionPoolStatsPojo;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class ConnectionPoolTest {
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 50;
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    // Физические соединения в порядке открытия.
+    private List<Connection> opened;
+    private ConnectionPool connectionPool;
+
+    @BeforeEach
+    void init() {
+        opened = new ArrayList<>();
+    }
+
+    @AfterEach
+    void close() {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+    }
+
+    @Test
+    void testExhaustedPoolTimesOut() throws SQLException {
+        connectionPool = createPool(1, IDLE_TIMEOUT_MILLIS);
+
+        try (Connection ignored = connectionPool.getConnection()) {
+            long startedAt = System.nanoTime();
+            assertThrows(SQLException.class, () -> connectionPool.getConnection());
+            assertTrue(System.nanoTime() - startedAt >= ACQUIRE_TIMEOUT_MILLIS * 1_000_000);
+
+            ConnectionPoolStatsPojo stats = connectionPool.getStats();
+            assertEquals(1, stats.maxSize);
+            assertEquals(1, stats.activeConnections);
+            assertEquals(1, stats.openConnections);
+            assertEquals(1, stats.acquisitions);
+            assertEquals(1, stats.acquisitionTimeouts);
+        }
+
+        assertEquals(0, connectionPool.getStats().activeConnections);
+        assertEquals(1, connectionPool.getStats().idleConnections);
+    }
+
+    @Test
+    void testTryGetConnectionDoesNotWait() throws SQLException {
+        connectionPool = createPool(1, IDLE_TIMEOUT_MILLIS);
+
+        try (Connection connection = connectionPool.tryGetConnection()) {
+            assertNotNull(connection);
+            assertNull(connectionPool.tryGetConnection());
+            assertEquals(0, connectionPool.getStats().acquisitionTimeouts);
+        }
+
+        try (Connection connection = connectionPool.tryGetConnection()) {
+            assertNotNull(connection);
+        }
+        assertEquals(1, opened.size());
+    }
+
+    @Test
+    void testCloseReturnsConnectionToPool() throws SQLException {
+        connectionPool = createPool(2, IDLE_TIMEOUT_MILLIS);
+
+        Connection first = connectionPool.getConnection();
+        first.close();
+        // Повторный close ничего не делает.
+        first.close();
+
+        assertTrue(first.isClosed());
+        assertThrows(SQLException.class, first::createStatement);
+        verify(opened.get(0), never()).close();
+
+        try (Connection second = connectionPool.getConnection()) {
+            second.createStatement();
+        }
+
+        // Второй раз выдано то же физическое соединение.
+        assertEquals(1, opened.size());
+        verify(opened.get(0)).createStatement();
+        assertEquals(1, connectionPool.getStats().idleConnections);
+    }
+
+    @Test
+    void testReturnedTransactionIsRolledBack() throws SQLException {
+        connectionPool = createPool(1, IDLE_TIMEOUT_MILLIS);
+
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            when(opened.get(0).getAutoCommit()).thenReturn(false);
+        }
+
+        verify(opened.get(0)).rollback();
+        verify(opened.get(0)).setAutoCommit(true);
+    }
+
+    @Test
+    void testInvalidConnectionIsDiscarded() throws SQLException {
+        connectionPool = createPool(1, IDLE_TIMEOUT_MILLIS);
+
+        connectionPool.getConnection().close();
+        when(opened.get(0).isValid(anyInt())).thenReturn(false);
+
+        try (Connection ignored = connectionPool.getConnection()) {
+            assertEquals(2, opened.size());
+            verify(opened.get(0)).close();
+            assertEquals(1, connectionPool.getStats().openConnections);
+        }
+    }
+
+    @Test
+    void testIdleConnectionsAreEvicted() throws Exception {
+        connectionPool = createPool(2, 1);
+
+        Connection first = connectionPool.getConnection();
+        Connection second = connectionPool.getConnection();
+        first.close();
+        Thread.sleep(10);
+
+        // Выданное соединение не вытесняется.
+        connectionPool.evictIdleConnections();
+
+        verify(opened.get(0)).close();
+        verify(opened.get(1), never()).close();
+        ConnectionPoolStatsPojo stats = connectionPool.getStats();
+        assertEquals(1, stats.evictions);
+        assertEquals(1, stats.openConnections);
+        assertEquals(0, stats.idleConnections);
+
+        second.close();
+    }
+
+    @Test
+    void testClosedPoolRejectsBorrowing() throws SQLException {
+        connectionPool = createPool(1, IDLE_TIMEOUT_MILLIS);
+        connectionPool.getConnection().close();
+
+        connectionPool.close();
+
+        verify(opened.get(0)).close();
+        assertThrows(SQLException.class, () -> connectionPool.getConnection());
+        assertThrows(SQLException.class, () -> connectionPool.tryGetConnection());
+    }
+
+    private ConnectionPool createPool(int maxSize, long idleTimeoutMillis) {
+        return new ConnectionPool(mock(Logger.class), () -> {
+            Connection connection = mock(Connection.class);
+            when(connection.isValid(anyInt())).thenReturn(true);
+            when(connection.getAutoCommit()).thenReturn(true);
+            opened.add(connection);
+            return connection;
+        }, maxSize, ACQUIRE_TIMEOUT_MILLIS, idleTimeoutMillis, 1);
+    }
+}
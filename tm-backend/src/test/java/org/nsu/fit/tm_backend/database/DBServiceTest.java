@@ -0,0 +1,281 @@
+package org.nsu.fit.tm_backend.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.mockito.ArgumentCaptor;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.database.query.CustomerField;
+import org.nsu.fit.tm_backend.database.query.CustomerQuery;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class DBServiceTest {
+    private ConnectionPool connectionPool;
+    private Connection connection;
+    private PreparedStatement statement;
+    private DBService dbService;
+
+    // Параметры каждого executeQuery, в порядке вызовов.
+    private List<List<UUID>> queries;
+    private List<UUID> parameters;
+
+    @BeforeEach
+    void init() throws SQLException {
+        connectionPool = mock(ConnectionPool.class);
+        connection = mock(Connection.class);
+        statement = mock(PreparedStatement.class);
+        queries = new ArrayList<>();
+        parameters = new ArrayList<>();
+
+        when(connectionPool.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        doAnswer(invocation -> {
+            int index = invocation.getArgument(0);
+            while (parameters.size() < index) {
+                parameters.add(null);
+            }
+            parameters.set(index - 1, UuidConverter.fromBytes(invocation.getArgument(1)));
+            return null;
+        }).when(statement).setBytes(anyInt(), any(byte[].class));
+
+        dbService = new DBService(mock(Logger.class), connectionPool, mock(BalanceLedger.class));
+    }
+
+    @Test
+    void testSelectByIdsSplitsIntoPaddedChunks() throws SQLException {
+        List<UUID> ids = randomIds(1201);
+        emptyResults();
+
+        dbService.getCustomers(ids);
+
+        // Один запрос на 500 placeholder'ов на всех чанках, одно соединение.
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(connection, times(1)).prepareStatement(sql.capture());
+        assertEquals(500, sql.getValue().chars().filter(c -> c == '?').count());
+
+        assertEquals(3, queries.size());
+        assertEquals(ids.subList(0, 500), queries.get(0));
+        assertEquals(ids.subList(500, 1000), queries.get(1));
+
+        // Последний чанк добивается последним id, текст запроса не меняется.
+        List<UUID> expectedLast = new ArrayList<>(ids.subList(1000, 1201));
+        expectedLast.addAll(Collections.nCopies(299, ids.get(1200)));
+        assertEquals(expectedLast, queries.get(2));
+    }
+
+    @Test
+    void testSelectByIdsUsesSmallChunkForFewIds() throws SQLException {
+        List<UUID> ids = randomIds(3);
+        emptyResults();
+
+        dbService.getCustomers(Arrays.asList(ids.get(0), ids.get(1), ids.get(0), ids.get(2)));
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(connection).prepareStatement(sql.capture());
+        assertEquals(3, sql.getValue().chars().filter(c -> c == '?').count());
+        assertEquals(Collections.singletonList(ids), queries);
+    }
+
+    @Test
+    void testGetCustomersKeepsRequestedOrder() throws SQLException {
+        List<UUID> ids = randomIds(3);
+        UUID missing = ids.get(1);
+
+        // База возвращает строки в своем порядке и без ненайденного id.
+        ResultSet rs = mock(ResultSet.class);
+        when(statement.executeQuery()).thenAnswer(invocation -> record(rs));
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getBytes("id")).thenReturn(UuidConverter.toBytes(ids.get(2)), UuidConverter.toBytes(ids.get(0)));
+
+        List<CustomerPojo> customers = dbService.getCustomers(ids);
+
+        assertEquals(2, customers.size());
+        assertEquals(ids.get(0), customers.get(0).id);
+        assertEquals(ids.get(2), customers.get(1).id);
+        assertTrue(customers.stream().noneMatch(customer -> missing.equals(customer.id)));
+    }
+
+    @Test
+    void testGetSubscriptionsForCustomers() throws SQLException {
+        List<UUID> customerIds = randomIds(2);
+        UUID subscriptionId = UUID.randomUUID();
+        UUID planId = UUID.randomUUID();
+
+        ResultSet rs = mock(ResultSet.class);
+        when(statement.executeQuery()).thenAnswer(invocation -> record(rs));
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getBytes("id")).thenReturn(UuidConverter.toBytes(subscriptionId));
+        when(rs.getBytes("customer_id")).thenReturn(UuidConverter.toBytes(customerIds.get(1)));
+        when(rs.getBytes("plan_id")).thenReturn(UuidConverter.toBytes(planId));
+
+        List<SubscriptionPojo> subscriptions = dbService.getSubscriptions(customerIds);
+
+        assertEquals(Collections.singletonList(customerIds), queries);
+        assertEquals(1, subscriptions.size());
+        assertEquals(subscriptionId, subscriptions.get(0).id);
+        assertEquals(customerIds.get(1), subscriptions.get(0).customerId);
+        assertEquals(planId, subscriptions.get(0).planId);
+    }
+
+    @Test
+    void testSelectByIdsWithoutIdsSkipsDatabase() throws SQLException {
+        assertTrue(dbService.getSubscriptions(Collections.emptyList()).isEmpty());
+        verify(connection, never()).prepareStatement(anyString());
+    }
+
+    @Test
+    void testCheckHealthDoesNotWaitForBusyPool() throws SQLException {
+        when(connectionPool.tryGetConnection()).thenReturn(null);
+
+        assertThrows(RuntimeException.class, () -> dbService.checkHealth());
+        verify(connectionPool, never()).getConnection();
+    }
+
+    @Test
+    void testCheckHealthValidatesConnection() throws SQLException {
+        when(connectionPool.tryGetConnection()).thenReturn(connection);
+        when(connection.isValid(anyInt())).thenReturn(false);
+
+        assertThrows(RuntimeException.class, () -> dbService.checkHealth());
+        verify(connection).isValid(2);
+        verify(connection).close();
+    }
+
+    @Test
+    void testCustomerPageAfterCursorAscending() throws SQLException {
+        UUID lastId = UUID.randomUUID();
+        String after = new KeysetCursor("Wick", lastId).encode();
+        emptyResults();
+
+        dbService.getCustomers(new CustomerQuery().firstName("John").sortBy(CustomerField.LAST_NAME, false), new PageRequest(10, after));
+
+        String sql = capturePageQuery();
+        assertTrue(sql.contains("WHERE first_name = ? AND (last_name > ? OR (last_name = ? AND id > ?))"), sql);
+        assertTrue(sql.endsWith("ORDER BY last_name ASC, id ASC LIMIT ?"), sql);
+
+        // Параметры идут в порядке placeholder'ов: фильтры, значение сортировки дважды, id, limit + 1.
+        verify(statement).setObject(1, "John");
+        verify(statement).setObject(2, "Wick");
+        verify(statement).setObject(3, "Wick");
+        verify(statement).setObject(eq(4), argThat(id -> Arrays.equals((byte[])id, UuidConverter.toBytes(lastId))));
+        verify(statement).setObject(5, 11);
+    }
+
+    @Test
+    void testCustomerPageAfterCursorDescending() throws SQLException {
+        UUID lastId = UUID.randomUUID();
+        String after = new KeysetCursor("Wick", lastId).encode();
+        emptyResults();
+
+        dbService.getCustomers(new CustomerQuery().sortBy(CustomerField.LAST_NAME, true), new PageRequest(10, after));
+
+        String sql = capturePageQuery();
+        assertTrue(sql.contains("WHERE (last_name < ? OR (last_name = ? AND id < ?))"), sql);
+        assertTrue(sql.endsWith("ORDER BY last_name DESC, id DESC LIMIT ?"), sql);
+        verify(statement).setObject(1, "Wick");
+        verify(statement).setObject(2, "Wick");
+        verify(statement).setObject(eq(3), argThat(id -> Arrays.equals((byte[])id, UuidConverter.toBytes(lastId))));
+        verify(statement).setObject(4, 11);
+    }
+
+    @Test
+    void testCustomerPageByIdAfterCursor() throws SQLException {
+        UUID lastId = UUID.randomUUID();
+        emptyResults();
+
+        dbService.getCustomers(new CustomerQuery(), new PageRequest(10, new KeysetCursor(null, lastId).encode()));
+
+        String sql = capturePageQuery();
+        assertTrue(sql.contains("WHERE id > ?"), sql);
+        assertTrue(sql.endsWith("ORDER BY id ASC LIMIT ?"), sql);
+    }
+
+    @Test
+    void testCustomerPageNextCursor() throws SQLException {
+        List<UUID> ids = randomIds(3);
+        ResultSet rs = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(rs);
+        when(rs.getBytes("id")).thenReturn(UuidConverter.toBytes(ids.get(0)), UuidConverter.toBytes(ids.get(1)), UuidConverter.toBytes(ids.get(2)));
+        when(rs.getObject("last_name")).thenReturn("A", "B", "C");
+        CustomerQuery query = new CustomerQuery().sortBy(CustomerField.LAST_NAME, false);
+
+        // limit + 1 строк: есть следующая страница, курсор указывает на последнюю строку страницы.
+        when(rs.next()).thenReturn(true, true, true, false);
+        Page<CustomerPojo> page = dbService.getCustomers(query, new PageRequest(2, null));
+
+        assertEquals(Arrays.asList(ids.get(0), ids.get(1)), page.getItems().stream().map(customer -> customer.id).collect(Collectors.toList()));
+        KeysetCursor next = KeysetCursor.decode(page.getNextCursor());
+        assertEquals("B", next.getSortValue());
+        assertEquals(ids.get(1), next.getId());
+    }
+
+    @Test
+    void testCustomerLastPageHasNoCursor() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getBytes("id")).thenReturn(UuidConverter.toBytes(UUID.randomUUID()), UuidConverter.toBytes(UUID.randomUUID()));
+
+        Page<CustomerPojo> page = dbService.getCustomers(new CustomerQuery(), new PageRequest(2, null));
+
+        assertEquals(2, page.getItems().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void testCustomerPageWithInvalidCursor() throws SQLException {
+        assertThrows(IllegalArgumentException.class,
+                () -> dbService.getCustomers(new CustomerQuery(), new PageRequest(10, "broken")));
+        verify(connection, never()).prepareStatement(anyString());
+    }
+
+    private String capturePageQuery() throws SQLException {
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(connection).prepareStatement(sql.capture());
+        return sql.getValue();
+    }
+
+    private void emptyResults() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(statement.executeQuery()).thenAnswer(invocation -> record(rs));
+    }
+
+    private ResultSet record(ResultSet rs) {
+        queries.add(new ArrayList<>(parameters));
+        return rs;
+    }
+
+    private static List<UUID> randomIds(int count) {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        return ids;
+    }
+}
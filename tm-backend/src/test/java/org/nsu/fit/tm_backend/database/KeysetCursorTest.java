@@ -0,0 +1,59 @@
+package org.nsu.fit.tm_backend.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+class KeysetCursorTest {
+    @Test
+    void testRoundTrip() {
+        UUID id = UUID.randomUUID();
+
+        KeysetCursor byName = KeysetCursor.decode(new KeysetCursor("Wick", id).encode());
+        assertEquals("Wick", byName.getSortValue());
+        assertEquals(id, byName.getId());
+
+        KeysetCursor byBalance = KeysetCursor.decode(new KeysetCursor(150, id).encode());
+        assertEquals(150, byBalance.getSortValue());
+
+        KeysetCursor byId = KeysetCursor.decode(new KeysetCursor(null, id).encode());
+        assertNull(byId.getSortValue());
+        assertEquals(id, byId.getId());
+    }
+
+    @Test
+    void testEncodedCursorIsUrlSafe() {
+        String cursor = new KeysetCursor("a+b/c?d", UUID.randomUUID()).encode();
+
+        assertEquals(cursor, cursor.replaceAll("[^A-Za-z0-9_-]", ""));
+    }
+
+    @Test
+    void testMalformedCursor() {
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode("not a cursor!"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(""));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("{\"a\":1}")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("null")));
+    }
+
+    @Test
+    void testTamperedCursor() {
+        String id = UUID.randomUUID().toString();
+
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("[\"Wick\"]")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("[\"Wick\",\"not-a-uuid\"]")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("[\"Wick\",42]")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("[{\"a\":1},\"" + id + "\"]")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("[1,\"" + id + "\",2]")));
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,106 @@
+package org.nsu.fit.tm_backend.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SchemaMigratorTest {
+    private ConnectionPool connectionPool;
+    private PreparedStatement insertVersion;
+    private List<String> executed;
+
+    // Результат запроса из директивы skip-if.
+    private long skipConditionResult;
+
+    @BeforeEach
+    void init() throws SQLException {
+        connectionPool = mock(ConnectionPool.class);
+        Connection connection = mock(Connection.class);
+        insertVersion = mock(PreparedStatement.class);
+        executed = new ArrayList<>();
+
+        when(connectionPool.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenAnswer(invocation -> {
+            Statement statement = mock(Statement.class);
+            when(statement.execute(anyString())).thenAnswer(execute -> executed.add(execute.getArgument(0)));
+            return statement;
+        });
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            if (sql.startsWith("INSERT INTO SCHEMA_VERSION")) {
+                return insertVersion;
+            } else if (sql.startsWith("SELECT COALESCE(MAX(version)")) {
+                // Применен только V1.
+                return selectLong(1);
+            } else if (sql.contains("information_schema")) {
+                return selectLong(skipConditionResult);
+            }
+            // GET_LOCK, RELEASE_LOCK и skip-if остальных скриптов.
+            return selectLong(1);
+        });
+    }
+
+    @Test
+    void testReadStatements() {
+        List<String> lines = Arrays.asList(
+                "-- comment",
+                "-- skip-if: SELECT 1",
+                "CREATE TABLE A (",
+                "  id INT",
+                ");",
+                "",
+                "DROP TABLE B;");
+
+        assertEquals(Arrays.asList("CREATE TABLE A (\n  id INT\n)", "DROP TABLE B"), SchemaMigrator.readStatements(lines));
+        assertEquals("SELECT 1", SchemaMigrator.getSkipCondition(lines));
+        assertNull(SchemaMigrator.getSkipCondition(Arrays.asList("-- comment", "DROP TABLE B;")));
+    }
+
+    @Test
+    void testAlreadyAppliedScriptIsOnlyRecorded() throws SQLException {
+        skipConditionResult = 1;
+
+        new SchemaMigrator(mock(Logger.class), connectionPool).migrate();
+
+        // V2 не выполнялся, но версия записана.
+        assertEquals(0, executed.stream().filter(sql -> sql.startsWith("RENAME TABLE")).count());
+        verify(insertVersion).setInt(1, 2);
+        verify(insertVersion).setString(2, "V2__binary_uuid_keys.sql");
+    }
+
+    @Test
+    void testScriptRunsWhenConditionIsFalse() throws SQLException {
+        skipConditionResult = 0;
+
+        new SchemaMigrator(mock(Logger.class), connectionPool).migrate();
+
+        assertEquals(1, executed.stream().filter(sql -> sql.startsWith("RENAME TABLE")).count());
+        verify(insertVersion).setInt(1, 2);
+    }
+
+    private static PreparedStatement selectLong(long value) throws SQLException {
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getLong(1)).thenReturn(value);
+        when(rs.getInt(1)).thenReturn((int)value);
+        return statement;
+    }
+}
@@ -1,15 +1,24 @@
 package org.nsu.fit.tm_backend.manager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import org.mockito.ArgumentCaptor;
+
 import org.slf4j.Logger;
 import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.data.CustomerImportReportPojo;
 import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.TopUpBalancePojo;
+import org.nsu.fit.tm_backend.database.query.CustomerQuery;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 import static org.mockito.Mockito.*;
@@ -95,4 +104,113 @@ class CustomerManagerTest {
         Exception exception = assertThrows(IllegalArgumentException.class, () -> customerManager.createCustomer(createCustomerInput));
         assertEquals("Password is very easy.", exception.getMessage());
     }
+
+    @Test
+    void testLookupCustomerUsesLoginIndexAfterCreate() {
+        createCustomerInput = new CustomerPojo();
+        createCustomerInput.firstName = "John";
+        createCustomerInput.lastName = "Wick";
+        createCustomerInput.login = "john_wick@example.com";
+        createCustomerInput.pass = "Baba_Jaga";
+        createCustomerInput.balance = 0;
+
+        CustomerPojo createCustomerOutput = new CustomerPojo();
+        createCustomerOutput.id = UUID.randomUUID();
+        createCustomerOutput.login = "john_wick@example.com";
+
+        when(dbService.createCustomer(createCustomerInput)).thenReturn(createCustomerOutput);
+        when(dbService.getCustomers(any(CustomerQuery.class))).thenReturn(Collections.singletonList(createCustomerOutput));
+
+        customerManager.createCustomer(createCustomerInput);
+        CustomerPojo customer = customerManager.lookupCustomer("john_wick@example.com");
+
+        assertEquals(createCustomerOutput.id, customer.id);
+
+        // Поиск идет по первичному ключу из индекса, а не перебором всех customer'ов.
+        ArgumentCaptor<CustomerQuery> query = ArgumentCaptor.forClass(CustomerQuery.class);
+        verify(dbService, times(1)).getCustomers(query.capture());
+        assertEquals(createCustomerOutput.id, query.getValue().getId());
+        verify(dbService, times(0)).getCustomers();
+    }
+
+    @Test
+    void testLookupCustomerAfterDelete() {
+        CustomerPojo customerPojo = new CustomerPojo();
+        customerPojo.id = UUID.randomUUID();
+        customerPojo.login = "john_wick@example.com";
+
+        when(dbService.getCustomers(any(CustomerQuery.class)))
+                .thenReturn(Collections.singletonList(customerPojo))
+                .thenReturn(Collections.emptyList());
+
+        assertEquals(customerPojo.id, customerManager.lookupCustomer("john_wick@example.com").id);
+
+        customerManager.deleteCustomer(customerPojo.id);
+
+        assertNull(customerManager.lookupCustomer("john_wick@example.com"));
+        verify(dbService, times(1)).deleteCustomer(customerPojo.id);
+    }
+
+    @Test
+    void testTopUpBalanceUsesAtomicUpdate() {
+        TopUpBalancePojo topUpBalancePojo = new TopUpBalancePojo();
+        topUpBalancePojo.customerId = UUID.randomUUID();
+        topUpBalancePojo.money = 100;
+
+        CustomerPojo customerPojo = new CustomerPojo();
+        customerPojo.id = topUpBalancePojo.customerId;
+        customerPojo.balance = 150;
+
+        when(dbService.addCustomerBalance(topUpBalancePojo.customerId, 100)).thenReturn(customerPojo);
+
+        assertEquals(150, customerManager.topUpBalance(topUpBalancePojo).balance);
+
+        verify(dbService, never()).getCustomer(any(UUID.class));
+        verify(dbService, never()).editCustomer(any(CustomerPojo.class));
+    }
+
+    @Test
+    void testImportCustomersReportsEveryRow() {
+        CustomerPojo valid = new CustomerPojo();
+        valid.firstName = "John";
+        valid.lastName = "Wick";
+        valid.login = "john_wick@example.com";
+        valid.pass = "Baba_Jaga";
+
+        CustomerPojo easyPassword = new CustomerPojo();
+        easyPassword.login = "helen_wick@example.com";
+        easyPassword.pass = "123qwe";
+
+        CustomerPojo repeated = new CustomerPojo();
+        repeated.login = "JOHN_WICK@example.com";
+        repeated.pass = "Baba_Jaga";
+
+        when(dbService.createCustomers(anyList())).thenAnswer(invocation -> {
+            List<CustomerPojo> customers = invocation.getArgument(0);
+            customers.forEach(customer -> customer.id = UUID.randomUUID());
+            return Collections.nCopies(customers.size(), null);
+        });
+
+        CustomerImportReportPojo report = customerManager.importCustomers(
+                Arrays.asList(valid, easyPassword, repeated).iterator());
+
+        assertEquals(1, report.created);
+        assertEquals(2, report.failed);
+        assertEquals(valid.id, report.rows.get(0).id);
+        assertEquals("Password is very easy.", report.rows.get(1).error);
+        assertEquals(3, report.rows.get(2).row);
+        assertNull(report.rows.get(2).id);
+
+        // Все корректные строки пишутся одной пачкой.
+        verify(dbService, times(1)).createCustomers(Collections.singletonList(valid));
+        verify(dbService, never()).createCustomer(any(CustomerPojo.class));
+    }
+
+    @Test
+    void testGetCustomersRejectsNullIds() {
+        assertThrows(IllegalArgumentException.class, () -> customerManager.getCustomers((List<UUID>)null));
+        assertThrows(IllegalArgumentException.class,
+                () -> customerManager.getCustomers(Arrays.asList(UUID.randomUUID(), null)));
+        verify(dbService, never()).getCustomers(anyCollection());
+    }
 }
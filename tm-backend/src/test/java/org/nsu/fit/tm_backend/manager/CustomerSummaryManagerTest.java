@@ -0,0 +1,89 @@
+package org.nsu.fit.tm_backend.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerSummaryPojo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class CustomerSummaryManagerTest {
+    private IDBService dbService;
+    private CustomerSummaryManager customerSummaryManager;
+
+    @BeforeEach
+    void init() {
+        dbService = mock(IDBService.class);
+        customerSummaryManager = new CustomerSummaryManager(dbService, mock(Logger.class));
+    }
+
+    @Test
+    void testGetStatisticUsesCachedSummaries() {
+        CustomerSummaryPojo first = createSummary(100, 10);
+        CustomerSummaryPojo second = createSummary(200, 20);
+
+        when(dbService.getCustomerSummaries(anyCollection())).thenReturn(Arrays.asList(first, second));
+
+        CustomerStatisticPojo statistic = customerSummaryManager.getStatistic(
+                Arrays.asList(first.customerId, second.customerId, first.customerId));
+        assertEquals(2, statistic.customerCount);
+        assertEquals(300, statistic.overallBalance);
+        assertEquals(30, statistic.overallFee);
+
+        statistic = customerSummaryManager.getStatistic(Arrays.asList(first.customerId, second.customerId));
+        assertEquals(300, statistic.overallBalance);
+
+        verify(dbService, times(1)).getCustomerSummaries(anyCollection());
+    }
+
+    @Test
+    void testGetStatisticAfterUpdate() {
+        CustomerSummaryPojo summary = createSummary(100, 10);
+        CustomerSummaryPojo updated = createSummary(150, 10);
+        updated.customerId = summary.customerId;
+
+        when(dbService.getCustomerSummaries(anyCollection()))
+                .thenReturn(Collections.singletonList(summary))
+                .thenReturn(Collections.singletonList(updated));
+
+        assertEquals(100, customerSummaryManager.getStatistic(Collections.singletonList(summary.customerId)).overallBalance);
+
+        customerSummaryManager.update(summary.customerId, () -> null);
+
+        assertEquals(150, customerSummaryManager.getStatistic(Collections.singletonList(summary.customerId)).overallBalance);
+        verify(dbService, times(2)).getCustomerSummaries(anyCollection());
+    }
+
+    @Test
+    void testUpdateAllDropsEveryCachedSummary() {
+        CustomerSummaryPojo first = createSummary(100, 10);
+        CustomerSummaryPojo second = createSummary(200, 20);
+
+        when(dbService.getCustomerSummaries(anyCollection())).thenReturn(Arrays.asList(first, second));
+
+        customerSummaryManager.getStatistic(Arrays.asList(first.customerId, second.customerId));
+        customerSummaryManager.updateAll(() -> null);
+        customerSummaryManager.getStatistic(Arrays.asList(first.customerId, second.customerId));
+
+        verify(dbService, times(2)).getCustomerSummaries(anyCollection());
+    }
+
+    private static CustomerSummaryPojo createSummary(long balance, long totalFee) {
+        CustomerSummaryPojo summary = new CustomerSummaryPojo();
+        summary.customerId = UUID.randomUUID();
+        summary.balance = balance;
+        summary.totalFee = totalFee;
+        summary.subscriptionCount = 1;
+        return summary;
+    }
+}
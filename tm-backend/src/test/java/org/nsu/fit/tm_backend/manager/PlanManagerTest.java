@@ -0,0 +1,190 @@
+package org.nsu.fit.tm_backend.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.data.CustomerSummaryPojo;
+import org.nsu.fit.tm_backend.database.data.PlanPojo;
+import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.mockito.Mockito.*;
+
+class PlanManagerTest {
+    private IDBService dbService;
+    private PlanManager planManager;
+
+    private PlanPojo basic;
+    private PlanPojo premium;
+
+    private UUID customerId;
+
+    @BeforeEach
+    void init() {
+        dbService = mock(IDBService.class);
+        planManager = new PlanManager(dbService, mock(Logger.class));
+
+        basic = createPlan("Basic");
+        premium = createPlan("Premium");
+        customerId = UUID.randomUUID();
+
+        when(dbService.getPlans()).thenReturn(Arrays.asList(basic, premium));
+    }
+
+    @Test
+    void testGetPlansSkipsSubscribedPlans() {
+        when(dbService.getSubscriptions(customerId)).thenReturn(Collections.singletonList(createSubscription(basic)));
+
+        assertEquals(Collections.singletonList(premium.id), ids(planManager.getPlans(customerId)));
+        assertEquals(Arrays.asList(basic.id, premium.id), ids(planManager.getPlans(null)));
+    }
+
+    @Test
+    void testGetPlansAfterSubscriptionChanges() {
+        when(dbService.getSubscriptions(customerId)).thenReturn(Collections.emptyList());
+
+        assertEquals(Arrays.asList(basic.id, premium.id), ids(planManager.getPlans(customerId)));
+
+        planManager.onSubscriptionCreated(customerId, premium.id);
+        assertEquals(Collections.singletonList(basic.id), ids(planManager.getPlans(customerId)));
+
+        planManager.onSubscriptionDeleted(customerId, premium.id);
+        assertEquals(Arrays.asList(basic.id, premium.id), ids(planManager.getPlans(customerId)));
+
+        // Подписки customer'а читаются из базы данных один раз, планы тоже.
+        verify(dbService, times(1)).getSubscriptions(customerId);
+        verify(dbService, times(1)).getPlans();
+    }
+
+    @Test
+    void testCatalogAfterCreateAndDeletePlan() {
+        PlanPojo gold = createPlan("Gold");
+        when(dbService.createPlan(gold)).thenReturn(gold);
+        when(dbService.getSubscriptions(customerId)).thenReturn(Collections.singletonList(createSubscription(basic)));
+
+        long version = planManager.getCatalog().getVersion();
+
+        planManager.createPlan(gold);
+        planManager.deletePlan(premium.id);
+
+        assertEquals(version + 2, planManager.getCatalog().getVersion());
+        assertEquals(Collections.singletonList(gold.id), ids(planManager.getPlans(customerId)));
+        verify(dbService, times(1)).getPlans();
+    }
+
+    @Test
+    void testDeletePlanRefreshesCustomerSummaries() {
+        CustomerSummaryManager customerSummaryManager = new CustomerSummaryManager(dbService, mock(Logger.class));
+        planManager = new PlanManager(dbService, mock(Logger.class), customerSummaryManager);
+
+        CustomerSummaryPojo summary = new CustomerSummaryPojo();
+        summary.customerId = customerId;
+        summary.totalFee = premium.fee;
+
+        // После удаления плана его стоимость вычтена из total_fee в базе данных.
+        CustomerSummaryPojo afterDelete = new CustomerSummaryPojo();
+        afterDelete.customerId = customerId;
+        afterDelete.totalFee = 0;
+
+        when(dbService.getCustomerSummaries(Collections.singletonList(customerId)))
+                .thenReturn(Collections.singletonList(summary))
+                .thenReturn(Collections.singletonList(afterDelete));
+
+        List<UUID> customerIds = Collections.singletonList(customerId);
+        assertEquals(premium.fee, customerSummaryManager.getStatistic(customerIds).overallFee);
+
+        planManager.deletePlan(premium.id);
+
+        assertEquals(0, customerSummaryManager.getStatistic(customerIds).overallFee);
+        verify(dbService).deletePlan(premium.id);
+        verify(dbService, times(2)).getCustomerSummaries(customerIds);
+    }
+
+    @Test
+    void testSubscriptionsVersionChangesWithSubscriptions() {
+        String initial = planManager.getSubscriptionsVersion(customerId);
+
+        planManager.onSubscriptionCreated(customerId, basic.id);
+        String afterCreate = planManager.getSubscriptionsVersion(customerId);
+
+        planManager.onSubscriptionDeleted(customerId, basic.id);
+
+        assertNotEquals(initial, afterCreate);
+        assertNotEquals(afterCreate, planManager.getSubscriptionsVersion(customerId));
+    }
+
+    @Test
+    void testSubscriptionsVersionChangesAfterSubscribedPlans() {
+        when(dbService.getSubscriptions(customerId)).thenReturn(Collections.emptyList());
+        PlanManager manager = spy(planManager);
+        manager.getPlans(customerId);
+
+        // Версия, которую видит читатель, пока множество планов еще не обновлено.
+        List<String> versionsDuringUpdate = new ArrayList<>();
+        doAnswer(invocation -> {
+            versionsDuringUpdate.add(manager.getSubscriptionsVersion(customerId));
+            return invocation.callRealMethod();
+        }).when(manager).getCatalog();
+
+        String initial = manager.getSubscriptionsVersion(customerId);
+        manager.onSubscriptionCreated(customerId, premium.id);
+        String afterCreate = manager.getSubscriptionsVersion(customerId);
+        manager.onSubscriptionDeleted(customerId, premium.id);
+
+        assertEquals(Arrays.asList(initial, afterCreate), versionsDuringUpdate);
+        assertNotEquals(initial, afterCreate);
+        assertNotEquals(afterCreate, manager.getSubscriptionsVersion(customerId));
+        assertEquals(Arrays.asList(basic.id, premium.id), ids(manager.getPlans(customerId)));
+    }
+
+    @Test
+    void testSubscriptionsVersionChangesWhenSubscribedPlansAreReloaded() {
+        when(dbService.getSubscriptions(customerId)).thenReturn(Collections.emptyList());
+
+        // Пока множество не загружено, версия не совпадает ни с одной выданной раньше.
+        assertNotEquals(planManager.getSubscriptionsVersion(customerId), planManager.getSubscriptionsVersion(customerId));
+
+        planManager.getPlans(customerId);
+        String loaded = planManager.getSubscriptionsVersion(customerId);
+        assertEquals(loaded, planManager.getSubscriptionsVersion(customerId));
+
+        // Перезагрузка каталога сбрасывает множества, как и истечение TTL: следующая загрузка дает новую версию.
+        planManager.reloadCatalog();
+        planManager.getPlans(customerId);
+
+        assertNotEquals(loaded, planManager.getSubscriptionsVersion(customerId));
+        verify(dbService, times(2)).getSubscriptions(customerId);
+    }
+
+    private static PlanPojo createPlan(String name) {
+        PlanPojo plan = new PlanPojo();
+        plan.id = UUID.randomUUID();
+        plan.name = name;
+        plan.details = name + " plan";
+        plan.fee = 100;
+        return plan;
+    }
+
+    private SubscriptionPojo createSubscription(PlanPojo plan) {
+        SubscriptionPojo subscription = new SubscriptionPojo();
+        subscription.id = UUID.randomUUID();
+        subscription.customerId = customerId;
+        subscription.planId = plan.id;
+        return subscription;
+    }
+
+    private static List<UUID> ids(List<PlanPojo> plans) {
+        return plans.stream().map(plan -> plan.id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,130 @@
+package org.nsu.fit.tm_backend.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.PlanPojo;
+import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.database.query.Page;
+import org.nsu.fit.tm_backend.database.query.PageRequest;
+import org.nsu.fit.tm_backend.manager.exception.ConcurrentUpdateException;
+import org.nsu.fit.tm_backend.manager.exception.InsufficientBalanceException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class SubscriptionManagerTest {
+    private IDBService dbService;
+    private SubscriptionManager subscriptionManager;
+
+    private PlanPojo plan;
+    private CustomerPojo customer;
+    private List<Long> backoffs;
+
+    @BeforeEach
+    void init() {
+        dbService = mock(IDBService.class);
+        Logger logger = mock(Logger.class);
+        backoffs = new ArrayList<>();
+
+        subscriptionManager = new SubscriptionManager(
+                dbService,
+                logger,
+                new PlanManager(dbService, logger),
+                new CustomerSummaryManager(dbService, logger),
+                backoffs::add);
+
+        plan = new PlanPojo();
+        plan.id = UUID.randomUUID();
+        plan.name = "Basic";
+        plan.details = "Basic plan";
+        plan.fee = 100;
+
+        customer = new CustomerPojo();
+        customer.id = UUID.randomUUID();
+        customer.balance = 150;
+        customer.version = 7;
+
+        when(dbService.getPlans()).thenReturn(Collections.singletonList(plan));
+        when(dbService.getCustomer(customer.id)).thenReturn(customer);
+    }
+
+    @Test
+    void testCreateSubscriptionRetriesOnConflict() {
+        SubscriptionPojo subscription = createSubscriptionInput();
+
+        SubscriptionPojo purchased = new SubscriptionPojo();
+        purchased.id = UUID.randomUUID();
+        purchased.customerId = customer.id;
+        purchased.planId = plan.id;
+
+        when(dbService.purchaseSubscription(subscription, customer.version))
+                .thenReturn(null)
+                .thenReturn(purchased);
+
+        assertEquals(purchased.id, subscriptionManager.createSubscription(subscription).id);
+        verify(dbService, times(2)).purchaseSubscription(subscription, customer.version);
+        assertEquals(1, backoffs.size());
+    }
+
+    @Test
+    void testCreateSubscriptionWithoutEnoughMoney() {
+        customer.balance = 99;
+
+        assertThrows(InsufficientBalanceException.class,
+                () -> subscriptionManager.createSubscription(createSubscriptionInput()));
+        verify(dbService, never()).purchaseSubscription(any(SubscriptionPojo.class), anyLong());
+    }
+
+    @Test
+    void testCreateSubscriptionGivesUpAfterConflicts() {
+        SubscriptionPojo subscription = createSubscriptionInput();
+
+        when(dbService.purchaseSubscription(subscription, customer.version)).thenReturn(null);
+
+        assertThrows(ConcurrentUpdateException.class, () -> subscriptionManager.createSubscription(subscription));
+        verify(dbService, times(5)).purchaseSubscription(subscription, customer.version);
+
+        // Задержка растет экспоненциально: 10, 20, 40, 80 мс плюс случайная добавка не больше самой задержки.
+        assertEquals(4, backoffs.size());
+        for (int i = 0; i < backoffs.size(); i++) {
+            long delay = 10L << i;
+            assertTrue(backoffs.get(i) >= delay && backoffs.get(i) < 2 * delay);
+        }
+    }
+
+    @Test
+    void testGetSubscriptionsPageHonorsPlanDetails() {
+        PageRequest pageRequest = new PageRequest(10, null);
+        when(dbService.getSubscriptions(customer.id, pageRequest))
+                .thenAnswer(invocation -> new Page<>(Collections.singletonList(createSubscriptionInput()), null));
+
+        SubscriptionPojo withDetails = subscriptionManager.getSubscriptions(customer.id, pageRequest, true).getItems().get(0);
+        assertEquals(plan.name, withDetails.planName);
+        assertEquals(plan.details, withDetails.planDetails);
+
+        SubscriptionPojo withoutDetails = subscriptionManager.getSubscriptions(customer.id, pageRequest, false).getItems().get(0);
+        assertEquals(plan.name, withoutDetails.planName);
+        assertNull(withoutDetails.planDetails);
+    }
+
+    private SubscriptionPojo createSubscriptionInput() {
+        SubscriptionPojo subscription = new SubscriptionPojo();
+        subscription.customerId = customer.id;
+        subscription.planId = plan.id;
+        return subscription;
+    }
+}
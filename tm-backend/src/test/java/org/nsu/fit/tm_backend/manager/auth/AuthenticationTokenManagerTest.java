@@ -0,0 +1,79 @@
+package org.nsu.fit.tm_backend.manager.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.slf4j.Logger;
+import org.nsu.fit.tm_backend.database.IDBService;
+import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.manager.auth.data.AuthenticationTokenDetails;
+import org.nsu.fit.tm_backend.manager.auth.exception.InvalidAuthenticationTokenException;
+import org.nsu.fit.tm_backend.shared.Authority;
+
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+class AuthenticationTokenManagerTest {
+    private IDBService dbService;
+    private AuthenticationTokenManager authenticationTokenManager;
+
+    private CustomerPojo customer;
+
+    @BeforeEach
+    void init() {
+        dbService = mock(IDBService.class);
+        authenticationTokenManager = new AuthenticationTokenManager(dbService, mock(Logger.class));
+
+        customer = new CustomerPojo();
+        customer.id = UUID.randomUUID();
+        customer.login = "john_wick@example.com";
+    }
+
+    @Test
+    void testCustomerIdIsCachedPerLogin() {
+        when(dbService.getCustomerByLogin(customer.login)).thenReturn(customer);
+
+        assertEquals(customer.id.toString(), lookup(customer.login));
+        assertEquals(customer.id.toString(), lookup(customer.login));
+
+        verify(dbService, times(1)).getCustomerByLogin(customer.login);
+    }
+
+    @Test
+    void testInvalidateCustomerDropsCachedId() {
+        when(dbService.getCustomerByLogin(customer.login)).thenReturn(customer);
+        lookup(customer.login);
+
+        authenticationTokenManager.invalidateCustomer(customer.id);
+        lookup(customer.login);
+
+        verify(dbService, times(2)).getCustomerByLogin(customer.login);
+    }
+
+    @Test
+    void testTokenOfDeletedCustomerIsInvalid() {
+        when(dbService.getCustomerByLogin(customer.login))
+                .thenThrow(new IllegalArgumentException("Customer with login '" + customer.login + "' was not found"));
+
+        assertThrows(InvalidAuthenticationTokenException.class, () -> lookup(customer.login));
+    }
+
+    private String lookup(String login) {
+        AuthenticationTokenDetails tokenDetails = new AuthenticationTokenDetails(
+                UUID.randomUUID().toString(),
+                login,
+                Collections.singleton(Authority.CUSTOMER_ROLE),
+                ZonedDateTime.now(),
+                ZonedDateTime.now().plusHours(1),
+                0,
+                1);
+
+        return authenticationTokenManager.lookupAuthenticatedUserDetails(tokenDetails).getUserId();
+    }
+}
@@ -1,5 +1,143 @@
 package org.nsu.fit.tm_backend.operations;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.CustomerStatisticPojo;
+import org.nsu.fit.tm_backend.database.data.SubscriptionPojo;
+import org.nsu.fit.tm_backend.manager.CustomerManager;
+import org.nsu.fit.tm_backend.manager.SubscriptionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
 public class StatisticOperationTest {
     // Лабораторная 2: покрыть юнит тестами класс StatisticOperation на 100%.
+    private CustomerManager customerManager;
+    private SubscriptionManager subscriptionManager;
+
+    @BeforeEach
+    void init() {
+        customerManager = mock(CustomerManager.class);
+        subscriptionManager = mock(SubscriptionManager.class);
+    }
+
+    @Test
+    void testCreateOperationWithNullArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new StatisticOperation(null, subscriptionManager, Collections.emptyList()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StatisticOperation(customerManager, null, Collections.emptyList()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StatisticOperation(customerManager, subscriptionManager, null));
+    }
+
+    @Test
+    void testExecutePerCustomer() {
+        UUID firstId = mockCustomer(Integer.MAX_VALUE, 100);
+        UUID secondId = mockCustomer(Integer.MAX_VALUE, 100);
+
+        // Повторяющийся id учитывается один раз, как и в остальных режимах.
+        StatisticOperation.StatisticOperationResult result = new StatisticOperation(
+                customerManager,
+                subscriptionManager,
+                Arrays.asList(firstId, secondId, firstId),
+                StatisticOperation.ExecutionMode.PER_CUSTOMER).Execute();
+
+        // Сумма не переполняется на больших значениях.
+        assertEquals(2L * Integer.MAX_VALUE, result.overallBalance);
+        assertEquals(200, result.overallFee);
+        verify(customerManager, times(1)).getCustomer(firstId);
+    }
+
+    @Test
+    void testExecuteSetBasedCountsDuplicateIdsOnce() {
+        UUID customerId = UUID.randomUUID();
+
+        CustomerStatisticPojo statistic = new CustomerStatisticPojo();
+        statistic.customerCount = 1;
+        statistic.overallBalance = 10;
+        statistic.overallFee = 1;
+
+        when(customerManager.getCustomerStatistic(Collections.singletonList(customerId))).thenReturn(statistic);
+
+        StatisticOperation.StatisticOperationResult result = new StatisticOperation(
+                customerManager,
+                subscriptionManager,
+                Arrays.asList(customerId, customerId),
+                StatisticOperation.ExecutionMode.SET_BASED).Execute();
+
+        assertEquals(10, result.overallBalance);
+        assertEquals(1, result.overallFee);
+    }
+
+    @Test
+    void testExecuteSetBasedSplitsIntoPartitions() {
+        List<UUID> customerIds = new ArrayList<>();
+        for (int i = 0; i < StatisticOperation.PARTITION_SIZE * 2 + 1; i++) {
+            customerIds.add(UUID.randomUUID());
+        }
+
+        when(customerManager.getCustomerStatistic(anyCollection())).thenAnswer(invocation -> {
+            Collection<UUID> ids = invocation.getArgument(0);
+            CustomerStatisticPojo statistic = new CustomerStatisticPojo();
+            statistic.customerCount = ids.size();
+            statistic.overallBalance = ids.size() * 10L;
+            statistic.overallFee = ids.size();
+            return statistic;
+        });
+
+        StatisticOperation.StatisticOperationResult result = new StatisticOperation(
+                customerManager,
+                subscriptionManager,
+                customerIds,
+                StatisticOperation.ExecutionMode.SET_BASED).Execute();
+
+        assertEquals(customerIds.size() * 10L, result.overallBalance);
+        assertEquals(customerIds.size(), result.overallFee);
+        verify(customerManager, times(3)).getCustomerStatistic(anyCollection());
+        verifyNoInteractions(subscriptionManager);
+    }
+
+    @Test
+    void testExecuteSetBasedWithUnknownCustomer() {
+        CustomerStatisticPojo statistic = new CustomerStatisticPojo();
+        statistic.customerCount = 1;
+
+        when(customerManager.getCustomerStatistic(anyCollection())).thenReturn(statistic);
+
+        StatisticOperation operation = new StatisticOperation(
+                customerManager,
+                subscriptionManager,
+                Arrays.asList(UUID.randomUUID(), UUID.randomUUID()),
+                StatisticOperation.ExecutionMode.SET_BASED);
+
+        assertThrows(IllegalArgumentException.class, operation::Execute);
+    }
+
+    private UUID mockCustomer(int balance, int planFee) {
+        CustomerPojo customer = new CustomerPojo();
+        customer.id = UUID.randomUUID();
+        customer.balance = balance;
+
+        SubscriptionPojo subscription = new SubscriptionPojo();
+        subscription.customerId = customer.id;
+        subscription.planFee = planFee;
+
+        when(customerManager.getCustomer(customer.id)).thenReturn(customer);
+        when(subscriptionManager.getSubscriptions(customer.id, false)).thenReturn(Collections.singletonList(subscription));
+
+        return customer.id;
+    }
 }
@@ -0,0 +1,163 @@
+package org.nsu.fit.tm_backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class CompressionFilterTest {
+    private static final int THRESHOLD = 64;
+
+    private CompressionFilter filter;
+    private MultivaluedMap<String, Object> headers;
+    private ByteArrayOutputStream target;
+    private WriterInterceptorContext context;
+
+    // Stream the interceptor gave to the entity writer.
+    private OutputStream entityStream;
+
+    @BeforeEach
+    void init() {
+        filter = new CompressionFilter(THRESHOLD);
+        headers = new MultivaluedHashMap<>();
+        target = new ByteArrayOutputStream();
+
+        context = mock(WriterInterceptorContext.class);
+        when(context.getHeaders()).thenReturn(headers);
+        when(context.getOutputStream()).thenReturn(target);
+        when(context.getProperty(anyString())).thenReturn(ContentEncoding.GZIP);
+        doAnswer(invocation -> entityStream = invocation.getArgument(0)).when(context).setOutputStream(any(OutputStream.class));
+    }
+
+    @Test
+    void testSmallBodyPassesThrough() throws IOException {
+        byte[] body = bytes(THRESHOLD - 1);
+        proceedWriting(body);
+
+        filter.aroundWriteTo(context);
+
+        assertArrayEquals(body, target.toByteArray());
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, headers.getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    void testLargeBodyIsCompressed() throws IOException {
+        byte[] body = bytes(THRESHOLD * 4);
+        headers.putSingle(HttpHeaders.ETAG, new EntityTag("42"));
+        headers.putSingle(HttpHeaders.CONTENT_LENGTH, body.length);
+        proceedWriting(body);
+
+        filter.aroundWriteTo(context);
+
+        assertEquals("gzip", headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(new EntityTag("42-gzip"), headers.getFirst(HttpHeaders.ETAG));
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_LENGTH));
+        assertArrayEquals(body, gunzip(target.toByteArray()));
+    }
+
+    @Test
+    void testFlushBelowThresholdSendsBodyUncompressed() throws IOException {
+        byte[] head = bytes(THRESHOLD / 2);
+        byte[] tail = bytes(THRESHOLD * 2);
+        doAnswer(invocation -> {
+            entityStream.write(head);
+            entityStream.flush();
+
+            // A streamed response gets its first lines out right away.
+            assertArrayEquals(head, target.toByteArray());
+
+            entityStream.write(tail);
+            return null;
+        }).when(context).proceed();
+
+        filter.aroundWriteTo(context);
+
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(head.length + tail.length, target.size());
+    }
+
+    @Test
+    void testFlushAfterThresholdSendsCompressedData() throws IOException {
+        byte[] body = bytes(THRESHOLD * 2);
+        doAnswer(invocation -> {
+            entityStream.write(body);
+            entityStream.flush();
+
+            assertTrue(target.size() > 0);
+            return null;
+        }).when(context).proceed();
+
+        filter.aroundWriteTo(context);
+
+        assertArrayEquals(body, gunzip(target.toByteArray()));
+    }
+
+    @Test
+    void testStreamIsFinishedWhenWritingFails() throws IOException {
+        byte[] body = bytes(THRESHOLD * 2);
+        doAnswer(invocation -> {
+            entityStream.write(body);
+            throw new IOException("Broken entity");
+        }).when(context).proceed();
+
+        assertThrows(IOException.class, () -> filter.aroundWriteTo(context));
+
+        // The compressed stream was closed, so the data is complete.
+        assertArrayEquals(body, gunzip(target.toByteArray()));
+    }
+
+    @Test
+    void testEncodedResponseIsNotTouched() throws IOException {
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, "deflate");
+
+        filter.aroundWriteTo(context);
+
+        verify(context).proceed();
+        verify(context, never()).setOutputStream(any(OutputStream.class));
+    }
+
+    private void proceedWriting(byte[] body) throws IOException {
+        doAnswer(invocation -> {
+            entityStream.write(body);
+            return null;
+        }).when(context).proceed();
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte)'a');
+        return bytes;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int read; (read = inputStream.read(buffer)) > 0; ) {
+                result.write(buffer, 0, read);
+            }
+            return result.toByteArray();
+        }
+    }
+}
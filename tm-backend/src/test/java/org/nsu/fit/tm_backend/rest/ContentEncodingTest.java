@@ -0,0 +1,83 @@
+package org.nsu.fit.tm_backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.EntityTag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+class ContentEncodingTest {
+    @Test
+    void testNegotiateByQuality() {
+        assertNull(ContentEncoding.negotiate(null));
+        assertNull(ContentEncoding.negotiate("identity"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("x-gzip"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip; q=0.9, deflate; q=0.1"));
+    }
+
+    @Test
+    void testNegotiateTieGoesToGzip() {
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate;q=0.5, gzip;q=0.5"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+    }
+
+    @Test
+    void testNegotiateHonorsZeroQuality() {
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("*, gzip;q=0"));
+        assertNull(ContentEncoding.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(ContentEncoding.negotiate("*;q=0"));
+        assertNull(ContentEncoding.negotiate("gzip;q=abc"));
+    }
+
+    @Test
+    void testFlushMakesWrittenDataReadable() throws IOException {
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream();
+            OutputStream outputStream = encoding.compress(target);
+
+            outputStream.write("first line\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            // Without finishing the stream, what's flushed so far decompresses to the first line.
+            assertEquals("first line\n", readPrefix(encoding, target.toByteArray(), "first line\n".length()));
+            outputStream.close();
+        }
+    }
+
+    @Test
+    void testTagAndUntag() {
+        EntityTag tag = new EntityTag("42");
+
+        assertEquals("42-gzip", ContentEncoding.GZIP.tag(tag).getValue());
+        assertEquals("42", ContentEncoding.untag("42-gzip"));
+        assertEquals("42", ContentEncoding.untag("42-deflate"));
+        assertEquals("42", ContentEncoding.untag("42"));
+    }
+
+    private static String readPrefix(ContentEncoding encoding, byte[] bytes, int length) throws IOException {
+        InputStream inputStream = encoding == ContentEncoding.GZIP
+                ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                : new InflaterInputStream(new ByteArrayInputStream(bytes));
+        byte[] result = new byte[length];
+        int read = 0;
+        while (read < length) {
+            read += inputStream.read(result, read, length - read);
+        }
+        return new String(result, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package org.nsu.fit.tm_backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import org.nsu.fit.tm_backend.shared.Globals;
+import org.nsu.fit.tm_backend.shared.WireFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class ResponseBodyCacheTest {
+    private final ResponseBodyCache cache = new ResponseBodyCache();
+    private final AtomicInteger builds = new AtomicInteger();
+
+    @Test
+    void testBodyIsReusedWhileVersionIsTheSame() {
+        ResponseBodyCache.Body first = cache.get("plans", 1, WireFormat.JSON, false, null, entity("a"));
+        ResponseBodyCache.Body second = cache.get("plans", 1, WireFormat.JSON, false, null, entity("b"));
+
+        assertSame(first, second);
+        assertEquals(1, builds.get());
+        assertEquals("{\"value\":\"a\"}", new String(second.getBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testNewVersionInvalidatesBody() {
+        ResponseBodyCache.Body first = cache.get("plans", 1, WireFormat.JSON, false, null, entity("a"));
+        ResponseBodyCache.Body second = cache.get("plans", 2, WireFormat.JSON, false, null, entity("b"));
+
+        assertNotSame(first, second);
+        assertEquals(2, builds.get());
+        assertEquals("{\"value\":\"b\"}", new String(second.getBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testBodiesAreKeptPerRepresentation() {
+        cache.get("plans", 1, WireFormat.JSON, false, null, entity("a"));
+        cache.get("plans", 1, WireFormat.JSON, true, null, entity("a"));
+        cache.get("plans", 1, WireFormat.SMILE, false, null, entity("a"));
+        cache.get("plans", 1, WireFormat.JSON, false, ContentEncoding.GZIP, entity("a"));
+        cache.get("catalog", 1, WireFormat.JSON, false, null, entity("a"));
+
+        assertEquals(5, builds.get());
+    }
+
+    @Test
+    void testOnlyLargeBodiesAreCompressed() {
+        ResponseBodyCache.Body small = cache.get("small", 1, WireFormat.JSON, false, ContentEncoding.GZIP, entity("a"));
+        assertNull(small.getEncoding());
+
+        String large = String.join("", Collections.nCopies(Globals.RESPONSE_COMPRESSION_THRESHOLD, "a"));
+        ResponseBodyCache.Body compressed = cache.get("large", 1, WireFormat.JSON, false, ContentEncoding.GZIP, entity(large));
+        assertEquals(ContentEncoding.GZIP, compressed.getEncoding());
+    }
+
+    private Supplier<Object> entity(String value) {
+        return () -> {
+            builds.incrementAndGet();
+            return Collections.singletonMap("value", value);
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package org.nsu.fit.tm_backend.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ExpiringCacheTest {
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Test
+    void testComputeIfAbsentLoadsOnce() {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, (int)cache.computeIfAbsent("a", key -> loads.incrementAndGet(), inHour()));
+        assertEquals(1, (int)cache.computeIfAbsent("a", key -> loads.incrementAndGet(), inHour()));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testComputeIfAbsentReloadsExpiredValue() {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.computeIfAbsent("a", key -> loads.incrementAndGet(), System.currentTimeMillis() - 1);
+
+        assertEquals(2, (int)cache.computeIfAbsent("a", key -> loads.incrementAndGet(), inHour()));
+    }
+
+    @Test
+    void testComputeIfPresentSkipsAbsentKey() {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>(10);
+        cache.computeIfAbsent("a", key -> 1, inHour());
+
+        cache.computeIfPresent("a", (key, value) -> value + 1);
+        cache.computeIfPresent("b", (key, value) -> value + 1);
+
+        assertEquals(2, (int)cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(10);
+        for (int i = 0; i < 100; i++) {
+            cache.computeIfAbsent(i, key -> key, inHour());
+        }
+
+        assertTrue(cache.size() <= 10);
+    }
+
+    private static long inHour() {
+        return System.currentTimeMillis() + HOUR_MILLIS;
+    }
+}
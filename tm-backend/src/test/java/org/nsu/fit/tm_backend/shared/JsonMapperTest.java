@@ -0,0 +1,95 @@
+package org.nsu.fit.tm_backend.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import org.nsu.fit.tm_backend.database.data.CustomerPojo;
+import org.nsu.fit.tm_backend.database.data.PlanPojo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class JsonMapperTest {
+    @Test
+    void testOutputIsCompactByDefault() throws IOException {
+        PlanPojo plan = createPlan();
+
+        String json = JsonMapper.toJson(plan, false);
+        assertFalse(json.contains("\n"));
+        assertFalse(json.contains(": "));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonMapper.writeJson(plan, out, false);
+        assertEquals(json, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testPrettyPrintIndents() throws IOException {
+        PlanPojo plan = createPlan();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonMapper.writeJson(plan, out, true);
+        String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        assertTrue(json.contains("\n  \"name\" : \"Basic\""));
+        assertEquals(JsonMapper.toJson(plan, true), json);
+
+        // Indenting doesn't change the content.
+        assertEquals(plan.name, JsonMapper.fromJson(json, PlanPojo.class).name);
+    }
+
+    @Test
+    void testPrettyPrintIsIgnoredForSmile() throws IOException {
+        PlanPojo plan = createPlan();
+
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        JsonMapper.write(plan, compact, WireFormat.SMILE, false);
+        ByteArrayOutputStream pretty = new ByteArrayOutputStream();
+        JsonMapper.write(plan, pretty, WireFormat.SMILE, true);
+
+        assertEquals(compact.size(), pretty.size());
+        PlanPojo result = JsonMapper.read(new ByteArrayInputStream(pretty.toByteArray()), PlanPojo.class, WireFormat.SMILE);
+        assertEquals(plan.fee, result.fee);
+    }
+
+    @Test
+    void testReadersAndWritersAreCachedPerType() {
+        assertSame(
+                JsonMapper.reader(PlanPojo.class, WireFormat.JSON),
+                JsonMapper.reader(PlanPojo.class, WireFormat.JSON));
+        assertNotSame(
+                JsonMapper.reader(PlanPojo.class, WireFormat.JSON),
+                JsonMapper.reader(CustomerPojo.class, WireFormat.JSON));
+        assertNotSame(
+                JsonMapper.reader(PlanPojo.class, WireFormat.JSON),
+                JsonMapper.reader(PlanPojo.class, WireFormat.SMILE));
+
+        assertSame(
+                JsonMapper.writer(createPlan(), WireFormat.JSON, false),
+                JsonMapper.writer(createPlan(), WireFormat.JSON, false));
+        assertSame(
+                JsonMapper.writer(createPlan(), WireFormat.JSON, true),
+                JsonMapper.writer(createPlan(), WireFormat.JSON, true));
+        assertNotSame(
+                JsonMapper.writer(createPlan(), WireFormat.JSON, false),
+                JsonMapper.writer(createPlan(), WireFormat.JSON, true));
+        assertNotSame(
+                JsonMapper.writer(createPlan(), WireFormat.JSON, false),
+                JsonMapper.writer(new CustomerPojo(), WireFormat.JSON, false));
+    }
+
+    private static PlanPojo createPlan() {
+        PlanPojo plan = new PlanPojo();
+        plan.name = "Basic";
+        plan.details = "Basic plan";
+        plan.fee = 100;
+        return plan;
+    }
+}
@@ -0,0 +1,46 @@
+package org.nsu.fit.tm_backend.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+class NdjsonWriterTest {
+    @Test
+    void testWritesOneValuePerLine() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NdjsonWriter writer = JsonMapper.toNdjson(out)) {
+            writer.write(Collections.singletonMap("a", 1));
+            writer.write(Collections.singletonMap("b", 2));
+        }
+
+        assertEquals("{\"a\":1}\n{\"b\":2}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testFlushesOncePerInterval() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (NdjsonWriter writer = JsonMapper.toNdjson(out)) {
+            for (int i = 0; i < NdjsonWriter.FLUSH_INTERVAL * 2 + 1; i++) {
+                writer.write(Collections.singletonMap("i", i));
+            }
+            assertEquals(2, out.flushes);
+        }
+
+        // close() flushes the rest.
+        assertEquals(3, out.flushes);
+    }
+
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        private int flushes;
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+}